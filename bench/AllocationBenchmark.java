@@ -0,0 +1,99 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * <h1>AllocationBenchmark</h1>
+ * Measures how much heap each finished orange costs, for a {@link Plant} moving {@link Orange} objects over
+ * {@link Conveyor}s and for a {@link CompactLine} moving {@code int} IDs over {@link IntConveyor}s.
+ * <p>
+ * Each run starts one line with {@link StandardCost#NONE}, so only the pipeline itself allocates, and lets it warm
+ * up. It then reads the bytes allocated so far by every live thread and the number of finished oranges, lets the
+ * line run for a while, and reads both again. Startup and shutdown are left out, so the figure is the steady-state
+ * cost per orange. Garbage collections during the measured window are reported too.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code ant bench -Dbench.class=AllocationBenchmark -Dbench.args="3 2"}
+ * (seconds measured per run, runs per line).
+ * </p>
+ */
+public class AllocationBenchmark {
+    public static void main(String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 3;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        Orange.setCostModel(StandardCost.NONE);
+
+        System.out.printf("%-8s %12s %14s %14s %8s %14s%n",
+                "line", "oranges", "allocated MB", "bytes/orange", "GCs", "oranges/sec");
+        for (String line : new String[]{"objects", "compact"}) {
+            for (int r = 0; r < runs; r++) {
+                measure(line, seconds);
+            }
+        }
+    }
+
+    /**
+     * Runs one line for a warm-up second plus {@code seconds} and prints one result line for the measured part.
+     */
+    private static void measure(String line, long seconds) throws InterruptedException {
+        PrintStream console = System.out;
+        PrintStream errors = System.err;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        PlantConfig config = new PlantConfig().setQueueCapacity(1024).setDrainTimeout(0);
+        Plant plant = null;
+        CompactLine compact = null;
+        if (line.equals("objects")) {
+            plant = new Plant(0, config);
+            plant.startPlant();
+        } else {
+            compact = new CompactLine("Compact", config);
+            compact.start();
+        }
+        Thread.sleep(1000);
+
+        long[] ids = ManagementFactory.getThreadMXBean().getAllThreadIds();
+        long gcsBefore = gcCount();
+        long bytesBefore = allocated(ids);
+        long orangesBefore = plant != null ? plant.getProcessedOranges() : compact.getProcessedOranges();
+        long begin = System.nanoTime();
+        Thread.sleep(seconds * 1000);
+        long oranges = (plant != null ? plant.getProcessedOranges() : compact.getProcessedOranges()) - orangesBefore;
+        long bytes = allocated(ids) - bytesBefore;
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        long gcs = gcCount() - gcsBefore;
+
+        if (plant != null) {
+            plant.stopPlant();
+            plant.waitToStop();
+        } else {
+            compact.stop(0);
+        }
+        System.setOut(console);
+        System.setErr(errors);
+        System.out.printf("%-8s %12d %14.1f %14.1f %8d %14.0f%n", line, oranges, bytes / 1e6,
+                (double) bytes / Math.max(1, oranges), gcs, oranges / elapsed);
+    }
+
+    /**
+     * Sums the bytes allocated by the given threads so far. Threads that have ended count as 0.
+     */
+    private static long allocated(long[] ids) {
+        long total = 0;
+        for (long b : ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(ids)) {
+            total += Math.max(0, b);
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+}
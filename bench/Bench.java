@@ -0,0 +1,142 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <h1>Bench</h1>
+ * Minimal benchmark harness shared by the classes in {@code bench/}.
+ * <p>
+ * Runs a body for a number of warm-up iterations, then for a number of timed iterations of fixed length, and prints
+ * the mean operations per second with a 99.9% confidence interval, plus the matching time per operation. Each body
+ * reports how many operations it completed in the time it was given, so the same harness covers single-threaded
+ * loops and whole plants.
+ * </p>
+ *
+ * <p>
+ * Command line arguments of the form {@code key=v1,v2} set parameters; everything else is left to the caller.
+ * Results go to the console the harness was created with, so benchmarks may redirect {@code System.out} to silence
+ * the plants they run.
+ * </p>
+ */
+final class Bench {
+    /**
+     * Code being measured.
+     */
+    interface Body {
+        /**
+         * Runs the operation repeatedly for about {@code nanos} nanoseconds.
+         *
+         * @param nanos Time to run for.
+         * @return Number of operations completed.
+         */
+        long run(long nanos) throws Exception;
+    }
+
+    /**
+     * Warm-up iterations before measuring, overridable with {@code warmups=N}.
+     */
+    private final int warmups;
+    /**
+     * Timed iterations, overridable with {@code iterations=N}.
+     */
+    private final int iterations;
+    /**
+     * Length of each iteration in milliseconds, overridable with {@code millis=N}.
+     */
+    private final long iterationMillis;
+    private final String[] args;
+    private final PrintStream out = System.out;
+
+    Bench(String[] args, int warmups, int iterations, long iterationMillis) {
+        this.args = args;
+        this.warmups = intParam("warmups", warmups);
+        this.iterations = intParam("iterations", iterations);
+        this.iterationMillis = intParam("millis", (int) iterationMillis);
+        out.printf("# %d warm-up and %d measured iterations of %d ms, %d cores, Java %s%n",
+                this.warmups, this.iterations, this.iterationMillis, Runtime.getRuntime().availableProcessors(),
+                System.getProperty("java.version"));
+        out.printf("%-72s %16s %12s %14s%n", "benchmark", "ops/sec", "+/-", "ns/op");
+    }
+
+    /**
+     * Measures a body and prints one result line.
+     *
+     * @param name Benchmark name including its parameters.
+     * @param body Code to measure.
+     * @return Mean operations per second.
+     */
+    double measure(String name, Body body) throws Exception {
+        long nanos = iterationMillis * 1_000_000L;
+        for (int i = 0; i < warmups; i++) {
+            body.run(nanos);
+        }
+        double[] rates = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long begin = System.nanoTime();
+            long ops = body.run(nanos);
+            rates[i] = ops * 1e9 / (System.nanoTime() - begin);
+        }
+        double mean = Arrays.stream(rates).average().orElse(0);
+        double variance = 0;
+        for (double r : rates) {
+            variance += (r - mean) * (r - mean);
+        }
+        double error = iterations > 1 ? 3.29 * Math.sqrt(variance / (iterations - 1)) / Math.sqrt(iterations) : 0;
+        out.printf(Locale.ROOT, "%-72s %,16.1f %,12.1f %,14.1f%n", name, mean, error,
+                mean == 0 ? 0 : 1e9 / mean);
+        return mean;
+    }
+
+    /**
+     * Checks whether a benchmark group was selected with {@code only=a,b}. Without {@code only}, every group runs.
+     *
+     * @param group Group name.
+     * @return {@code true} if the group should run.
+     */
+    boolean selected(String group) {
+        List<String> only = listParam("only", null);
+        return only == null || only.contains(group);
+    }
+
+    /**
+     * Reads a list parameter.
+     *
+     * @param key      Parameter name.
+     * @param defaults Value if the parameter is not given.
+     * @return The given values, or {@code defaults}.
+     */
+    List<String> listParam(String key, List<String> defaults) {
+        for (String a : args) {
+            if (a.startsWith(key + "=")) {
+                return Arrays.asList(a.substring(key.length() + 1).split(","));
+            }
+        }
+        return defaults;
+    }
+
+    /**
+     * Reads a list of integers.
+     *
+     * @param key      Parameter name.
+     * @param defaults Values if the parameter is not given.
+     * @return The given values, or {@code defaults}.
+     */
+    List<Integer> intsParam(String key, Integer... defaults) {
+        List<String> values = listParam(key, null);
+        if (values == null) {
+            return Arrays.asList(defaults);
+        }
+        List<Integer> ints = new ArrayList<Integer>();
+        for (String v : values) {
+            ints.add(Integer.parseInt(v));
+        }
+        return ints;
+    }
+
+    private int intParam(String key, int defaultValue) {
+        List<String> values = listParam(key, null);
+        return values == null ? defaultValue : Integer.parseInt(values.get(0));
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.Locale;
+
+/**
+ * <h1>FetchControlBenchmark</h1>
+ * Compares the open-loop fetcher, which fetches as fast as it can, with fetchers paced by a {@link FetchController}
+ * that follows what the plant can bottle.
+ * <p>
+ * Each scenario runs a fresh {@link Fleet} once per mode for the same run time and lets it drain. The report shows
+ * bottles, bottles per second over the whole run including the drain, and the oranges fetched that never made it into
+ * a bottle, split into dropped by a full conveyor and abandoned at the drain deadline; the rest of the waste are
+ * oranges short of a full bottle. The scenarios:
+ * </p>
+ * <ul>
+ *     <li><b>balanced:</b> the built-in stage times, where the fetcher is about as fast as the slowest stage.</li>
+ *     <li><b>slow bottler:</b> bottling takes 80 ms, so oranges pile up in front of the bottler and are abandoned
+ *     when the plant stops.</li>
+ *     <li><b>slow bottler, drop:</b> as above, with small conveyors that drop new oranges when full
+ *     ({@link Backpressure#DROP_NEWEST}).</li>
+ * </ul>
+ * <p>
+ * The plants' console messages are turned off through {@link ConsoleLog} while they run.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code ant bench -Dbench.class=FetchControlBenchmark -Dbench.args="2 5"}
+ * (plant count, seconds each plant runs).
+ * </p>
+ */
+public class FetchControlBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int numPlants = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+
+        int[] builtIn = new int[Orange.State.values().length];
+        for (Orange.State state : Orange.State.values()) {
+            builtIn[state.ordinal()] = state.timeToComplete;
+        }
+        int[] slowBottler = builtIn.clone();
+        slowBottler[Orange.State.Bottled.ordinal()] = 80;
+
+        System.out.printf("%-20s %-11s %8s %8s %12s %8s %8s %10s%n", "scenario", "fetcher", "fetched", "bottles",
+                "bottles/sec", "wasted", "dropped", "abandoned");
+        ConsoleLog.Level level = ConsoleLog.getLevel();
+        ConsoleLog.setLevel(ConsoleLog.Level.OFF);
+        CostModel cost = Orange.getCostModel();
+        try {
+            for (boolean control : new boolean[]{false, true}) {
+                run("balanced", numPlants, seconds, control, builtIn, Backpressure.BLOCK, 64);
+            }
+            for (boolean control : new boolean[]{false, true}) {
+                run("slow bottler", numPlants, seconds, control, slowBottler, Backpressure.BLOCK, 64);
+            }
+            for (boolean control : new boolean[]{false, true}) {
+                run("slow bottler, drop", numPlants, seconds, control, slowBottler, Backpressure.DROP_NEWEST, 16);
+            }
+        } finally {
+            ConsoleLog.setLevel(level);
+            Orange.setCostModel(cost);
+        }
+    }
+
+    /**
+     * Runs one scenario in one mode and prints one result line.
+     */
+    private static void run(String scenario, int numPlants, long seconds, boolean control, int[] millis,
+                            Backpressure backpressure, int capacity) throws InterruptedException {
+        Orange.setCostModel(new TimedCost(StandardCost.SLEEP, millis));
+        Fleet fleet = new Fleet(numPlants, i -> new PlantConfig().setRunTime(seconds * 1000)
+                .setControlFetchRate(control).setBackpressure(backpressure).setQueueCapacity(capacity));
+        fleet.start();
+        fleet.waitToStop();
+        double elapsed = (System.nanoTime() - fleet.getBeginNanos()) / 1e9;
+
+        long fetched = 0;
+        long bottles = 0;
+        long wasted = 0;
+        long dropped = 0;
+        long abandoned = 0;
+        for (Plant p : fleet.getPlants()) {
+            fetched += p.getProvidedOranges();
+            bottles += p.getBottles();
+            wasted += p.getWaste();
+            dropped += p.getDroppedOranges();
+            abandoned += p.getAbandonedOranges();
+        }
+        System.out.printf(Locale.ROOT, "%-20s %-11s %8d %8d %12.2f %8d %8d %10d%n", scenario,
+                control ? "controlled" : "open-loop", fetched, bottles, bottles / elapsed, wasted, dropped, abandoned);
+    }
+}
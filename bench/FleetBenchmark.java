@@ -0,0 +1,75 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>FleetBenchmark</h1>
+ * Measures how long a {@link Fleet} takes to get a large number of plants working, with one builder thread (plants
+ * started one after another) and with several.
+ * <p>
+ * For each builder count the benchmark starts a fresh fleet and reports the startup time until every plant has
+ * started its workers, the time until the fleet's first bottle, and the time until every plant has filled one. One
+ * builder, a plain loop starting the plants one after another, is always measured first as the baseline, and every
+ * line shows how its startup compares. A small untimed fleet runs before that, so the baseline doesn't pay for class
+ * loading and compilation. The plants' console messages are turned off through {@link ConsoleLog} while they run.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code ant bench -Dbench.class=FleetBenchmark -Dbench.args="1000 4"}
+ * (plant count, then the builder counts to compare with the baseline; by default the number of processors, at
+ * least 4).
+ * </p>
+ */
+public class FleetBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int numPlants = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int[] builders;
+        if (args.length > 1) {
+            builders = new int[args.length];
+            for (int i = 1; i < args.length; i++) {
+                builders[i] = Integer.parseInt(args[i]);
+            }
+        } else {
+            builders = new int[]{1, Math.max(4, Runtime.getRuntime().availableProcessors())};
+        }
+        builders[0] = 1;
+
+        ConsoleLog.Level level = ConsoleLog.getLevel();
+        ConsoleLog.setLevel(ConsoleLog.Level.OFF);
+        try {
+            Fleet warmup = new Fleet(Math.min(numPlants, 100), i -> new PlantConfig().setDrainTimeout(0));
+            warmup.start();
+            warmup.awaitEveryPlantBottled(30, TimeUnit.SECONDS);
+            warmup.stop();
+
+            System.out.printf("%-9s %8s %12s %14s %16s %18s%n", "builders", "plants", "start ms", "vs 1 builder",
+                    "first bottle ms", "every plant ms");
+            long baseline = -1;
+            for (int b : builders) {
+                long startup = run(numPlants, b, baseline);
+                if (baseline < 0) {
+                    baseline = startup;
+                }
+            }
+        } finally {
+            ConsoleLog.setLevel(level);
+        }
+    }
+
+    /**
+     * Starts one fleet, prints one result line and stops it.
+     *
+     * @return Startup time in nanoseconds.
+     */
+    private static long run(int numPlants, int builders, long baseline) throws InterruptedException {
+        System.gc();
+        Fleet fleet = new Fleet(numPlants, i -> new PlantConfig().setDrainTimeout(0)).setBuilders(builders);
+        fleet.start();
+        boolean bottled = fleet.awaitEveryPlantBottled(30, TimeUnit.SECONDS);
+        long startup = fleet.getStartupNanos();
+        System.out.printf("%-9d %8d %12.1f %14s %16.1f %18s%n", builders, numPlants, startup / 1e6,
+                baseline < 0 ? "baseline" : String.format("%.2fx", (double) baseline / startup),
+                fleet.getFirstBottleNanos() / 1e6,
+                bottled ? String.format("%.1f", fleet.getEveryPlantBottledNanos() / 1e6) : "timed out");
+        fleet.stop();
+        return startup;
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <h1>HandoffBenchmark</h1>
+ * Measures how {@link Plant#sendOranges(Orange, OrangeSink)} / {@link Plant#getOranges(Conveyor)} hand-offs scale
+ * with the number of plants.
+ * <p>
+ * Every simulated plant gets its own {@link Conveyor} with one producer and one consumer thread that pass the same
+ * {@link Orange} back and forth {@code HANDOFFS} times, so nothing but the hand-off itself is timed. Each plant
+ * count is run twice: once through the per-conveyor path as it is now, and once with every call wrapped in
+ * {@code synchronized (Plant.class)} to reproduce the old global lock.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code ant bench -Dbench.class=HandoffBenchmark -Dbench.args="1 2 4 8"} (plant counts, optional).
+ * </p>
+ */
+public class HandoffBenchmark {
+    /**
+     * Hand-offs performed by each plant per run.
+     */
+    private static final int HANDOFFS = 1_000_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] plantCounts = {1, 2, 4, 8};
+        if (args.length > 0) {
+            plantCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                plantCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        Orange token = new Orange();
+
+        // Warm up both paths before measuring anything
+        run(2, token, false);
+        run(2, token, true);
+
+        System.out.println("cores = " + Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-7s %-12s %16s %16s%n", "plants", "lock", "handoffs/sec", "per plant");
+        for (int plants : plantCounts) {
+            for (boolean global : new boolean[]{true, false}) {
+                double rate = run(plants, token, global);
+                System.out.printf("%-7d %-12s %,16.0f %,16.0f%n", plants, global ? "Plant.class" : "per-conveyor",
+                        rate, rate / plants);
+            }
+        }
+    }
+
+    /**
+     * Runs one producer/consumer pair per plant and returns the aggregate hand-off rate.
+     *
+     * @param plants Number of independent plants.
+     * @param token  {@link Orange} passed through every hand-off.
+     * @param global {@code true} to serialize every call on {@code Plant.class} like the old code did.
+     * @return Hand-offs per second across all plants.
+     */
+    private static double run(int plants, Orange token, boolean global) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[plants * 2];
+        for (int p = 0; p < plants; p++) {
+            Conveyor conveyor = new Conveyor("Bench " + p);
+            threads[2 * p] = new Thread(() -> {
+                await(start);
+                try {
+                    for (int i = 0; i < HANDOFFS; i++) {
+                        if (global) {
+                            synchronized (Plant.class) {
+                                Plant.sendOranges(token, conveyor);
+                            }
+                        } else {
+                            Plant.sendOranges(token, conveyor);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("Bench producer interrupted.");
+                }
+                conveyor.close();
+            });
+            threads[2 * p + 1] = new Thread(() -> {
+                await(start);
+                try {
+                    while (true) {
+                        Orange o;
+                        if (global) {
+                            synchronized (Plant.class) {
+                                // The old getOranges never blocked, so neither may we while holding the lock
+                                o = conveyor.isEmpty() && !conveyor.isClosed() ? token : Plant.getOranges(conveyor);
+                            }
+                        } else {
+                            o = Plant.getOranges(conveyor);
+                        }
+                        if (o == null) {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    System.err.println("Bench consumer interrupted.");
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        return (double) plants * HANDOFFS * 1_000_000_000L / elapsed;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
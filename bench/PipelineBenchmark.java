@@ -0,0 +1,214 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * <h1>PipelineBenchmark</h1>
+ * Benchmark suite for the orange pipeline, run through {@link Bench}.
+ * <p>
+ * Groups, selectable with {@code only=...}:
+ * </p>
+ * <ul>
+ *     <li><b>endToEnd:</b> oranges per second finished by whole {@link Plant}s, for every combination of
+ *     {@code engine}, {@code plants}, {@code workers} (per stage), {@code batch} (largest batch per take),
+ *     {@code queue} and {@code work}.</li>
+ *     <li><b>handoff:</b> cost of one {@link Plant#sendOranges(Orange, OrangeSink)} plus
+ *     {@link Plant#getOranges(Conveyor)}, on one thread and between two threads, for every {@code queue}.</li>
+ *     <li><b>runProcess:</b> cost of one {@link Orange#runProcess()} state transition with no simulated work.</li>
+ * </ul>
+ * <p>
+ * Queue implementations: {@code unbounded}, {@code bounded} (64 oranges, {@link Backpressure#BLOCK}) and
+ * {@code shed} (64 oranges, {@link Backpressure#SHED_OLDEST}). Work modes are the {@link StandardCost} models:
+ * {@code sleep} (the simulated stage times), {@code busy} (the same times as CPU work) and {@code none}.
+ * Engines are the {@link Engine}s in lower case: {@code conveyors}, {@code compact} and {@code ring}. The line
+ * engines always block on a full queue and ignore {@code batch}, so {@code queue=shed} only applies to
+ * {@code conveyors}.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code ant bench -Dbench.class=PipelineBenchmark -Dbench.args="only=endToEnd plants=1,4 workers=1,2"}
+ * </p>
+ */
+public class PipelineBenchmark {
+    private static final int BOUNDED_CAPACITY = 64;
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = new Bench(args, 2, 5, 1000);
+
+        if (bench.selected("endToEnd")) {
+            for (String work : bench.listParam("work", Arrays.asList("sleep"))) {
+                for (String queue : bench.listParam("queue", Arrays.asList("bounded", "unbounded"))) {
+                    for (int plants : bench.intsParam("plants", 1, 4)) {
+                        for (int workers : bench.intsParam("workers", 1, 2)) {
+                            for (int batch : bench.intsParam("batch", 1)) {
+                                for (String engine : bench.listParam("engine", Arrays.asList("conveyors", "ring"))) {
+                                    endToEnd(bench, engine, plants, workers, batch, queue, work);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (bench.selected("handoff")) {
+            for (String queue : bench.listParam("queue", Arrays.asList("bounded", "unbounded"))) {
+                handoff(bench, queue);
+                crossThreadHandoff(bench, queue);
+            }
+        }
+        if (bench.selected("runProcess")) {
+            runProcess(bench);
+        }
+    }
+
+    /**
+     * Applies a queue implementation to a plant config.
+     */
+    private static PlantConfig withQueue(PlantConfig config, String queue) {
+        switch (queue) {
+            case "unbounded":
+                return config.setQueueCapacity(Integer.MAX_VALUE);
+            case "bounded":
+                return config.setQueueCapacity(BOUNDED_CAPACITY).setBackpressure(Backpressure.BLOCK);
+            case "shed":
+                return config.setQueueCapacity(BOUNDED_CAPACITY).setBackpressure(Backpressure.SHED_OLDEST);
+            default:
+                throw new IllegalArgumentException("Unknown queue implementation: " + queue);
+        }
+    }
+
+    /**
+     * Creates a conveyor like the ones a plant with the given queue implementation uses.
+     */
+    private static Conveyor conveyor(String queue) {
+        PlantConfig config = withQueue(new PlantConfig(), queue);
+        return new Conveyor("Bench", config.getQueueCapacity(), config.getBackpressure());
+    }
+
+    private static void endToEnd(Bench bench, String engine, int numPlants, int workers, int batch, String queue,
+                                 String work) throws Exception {
+        Orange.setCostModel(StandardCost.valueOf(work.toUpperCase()));
+        PrintStream console = System.out;
+        PrintStream errors = System.err;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        Plant[] plants = new Plant[numPlants];
+        for (int i = 0; i < numPlants; i++) {
+            PlantConfig config = withQueue(new PlantConfig(), queue).setDrainTimeout(0).setBatchSize(batch)
+                    .setEngine(Engine.valueOf(engine.toUpperCase()));
+            for (int s = 0; s < PlantConfig.NUM_STAGES; s++) {
+                config.setWorkers(s, workers);
+            }
+            plants[i] = new Plant(i, config);
+            plants[i].startPlant();
+        }
+        try {
+            String name = String.format("endToEnd engine=%s plants=%d workers=%d batch=%d queue=%s work=%s", engine,
+                    numPlants, workers, batch, queue, work);
+            bench.measure(name, nanos -> {
+                long before = processed(plants);
+                Thread.sleep(nanos / 1_000_000);
+                return processed(plants) - before;
+            });
+        } finally {
+            for (Plant p : plants) {
+                p.stopPlant();
+            }
+            for (Plant p : plants) {
+                p.waitToStop();
+            }
+            System.setOut(console);
+            System.setErr(errors);
+            Orange.setCostModel(StandardCost.SLEEP);
+        }
+    }
+
+    private static long processed(Plant[] plants) {
+        long total = 0;
+        for (Plant p : plants) {
+            total += p.getProcessedOranges();
+        }
+        return total;
+    }
+
+    private static void handoff(Bench bench, String queue) throws Exception {
+        Conveyor conveyor = conveyor(queue);
+        Orange orange = newOrange();
+        bench.measure("handoff thread=single queue=" + queue, nanos -> {
+            long end = System.nanoTime() + nanos;
+            long ops = 0;
+            do {
+                for (int i = 0; i < 1024; i++) {
+                    Plant.sendOranges(orange, conveyor);
+                    Plant.getOranges(conveyor);
+                }
+                ops += 1024;
+            } while (System.nanoTime() < end);
+            return ops;
+        });
+    }
+
+    private static void crossThreadHandoff(Bench bench, String queue) throws Exception {
+        // Cross-thread hand-offs always go through a bounded belt so a fast producer can't run away
+        Conveyor conveyor = conveyor(queue.equals("unbounded") ? "bounded" : queue);
+        Orange orange = newOrange();
+        Thread producer = new Thread(() -> {
+            try {
+                while (Plant.sendOranges(orange, conveyor)) {
+                    // keep the consumer fed until the conveyor is closed
+                }
+            } catch (InterruptedException e) {
+                System.err.println("Bench producer interrupted.");
+            }
+        });
+        producer.start();
+        try {
+            bench.measure("handoff thread=cross queue=" + queue, nanos -> {
+                long end = System.nanoTime() + nanos;
+                long ops = 0;
+                do {
+                    for (int i = 0; i < 1024; i++) {
+                        Plant.getOranges(conveyor);
+                    }
+                    ops += 1024;
+                } while (System.nanoTime() < end);
+                return ops;
+            });
+        } finally {
+            conveyor.abandon();
+            producer.join();
+        }
+    }
+
+    private static void runProcess(Bench bench) throws Exception {
+        Orange.setCostModel(StandardCost.NONE);
+        try {
+            int transitions = Orange.State.values().length - 1;
+            bench.measure("runProcess work=none", nanos -> {
+                long end = System.nanoTime() + nanos;
+                long ops = 0;
+                do {
+                    for (int i = 0; i < 1024; i++) {
+                        Orange o = new Orange();
+                        for (int t = 0; t < transitions; t++) {
+                            o.runProcess();
+                        }
+                    }
+                    ops += 1024L * transitions;
+                } while (System.nanoTime() < end);
+                return ops;
+            });
+        } finally {
+            Orange.setCostModel(StandardCost.SLEEP);
+        }
+    }
+
+    private static Orange newOrange() {
+        Orange.setCostModel(StandardCost.NONE);
+        try {
+            return new Orange();
+        } finally {
+            Orange.setCostModel(StandardCost.SLEEP);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * <h1>PlantThroughputBenchmark</h1>
+ * Runs a few default {@link Plant} instances side by side and reports how many oranges they finish per second.
+ * <p>
+ * Meant for machines with few cores, where anything a plant does besides its workers' work (such as spinning while it
+ * waits to be stopped) shows up directly as lost worker throughput. Only oranges finished before the plants are told to
+ * stop are counted, and the plants' own console output is suppressed. The CPU time the whole JVM used over the run is
+ * reported next to it, as a share of one core.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code ant bench -Dbench.class=PlantThroughputBenchmark -Dbench.args="2 5"} (plants, seconds).
+ * </p>
+ */
+public class PlantThroughputBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int numPlants = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Plant[] plants = new Plant[numPlants];
+        long cpuBegin = processCpuNanos();
+        long begin = System.nanoTime();
+        for (int i = 0; i < numPlants; i++) {
+            plants[i] = new Plant(i);
+            plants[i].startPlant();
+        }
+        Thread.sleep(seconds * 1000);
+        long processed = 0;
+        for (Plant p : plants) {
+            processed += p.getProcessedOranges();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        double cpu = (processCpuNanos() - cpuBegin) / 1e9;
+        for (Plant p : plants) {
+            p.stopPlant();
+        }
+        for (Plant p : plants) {
+            p.waitToStop();
+        }
+        System.setOut(console);
+
+        double rate = processed / elapsed;
+        System.out.printf("cores = %d, plants = %d%n", Runtime.getRuntime().availableProcessors(), numPlants);
+        System.out.printf("%,.1f oranges/sec total, %,.1f per plant%n", rate, rate / numPlants);
+        System.out.printf("CPU used: %.0f%% of one core%n", 100 * cpu / elapsed);
+    }
+
+    /**
+     * Gets the CPU time used by this JVM so far.
+     *
+     * @return Process CPU time in nanoseconds, or 0 if the platform doesn't report it.
+     */
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
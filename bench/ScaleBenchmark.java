@@ -0,0 +1,90 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * <h1>ScaleBenchmark</h1>
+ * Runs a large number of {@link Plant} instances at once and compares {@link ExecutionMode#PLATFORM} threads with
+ * {@link ExecutionMode#VIRTUAL} threads.
+ * <p>
+ * For each mode the benchmark starts every plant, lets them work for a while, records heap use and the number of
+ * live platform threads, then stops the plants. Throughput counts the oranges finished between starting the first
+ * plant and telling them all to stop, so slow startup counts against a mode. The plants' own console output is
+ * suppressed while they run.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code ant bench -Dbench.class=ScaleBenchmark -Dbench.args="10000 5 VIRTUAL PLATFORM"}
+ * (plant count, seconds of work, modes). Virtual threads need the benchmark to run on Java 21 or newer.
+ * </p>
+ */
+public class ScaleBenchmark {
+    public static void main(String[] args) {
+        int numPlants = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        String[] modes = args.length > 2 ? java.util.Arrays.copyOfRange(args, 2, args.length)
+                : new String[]{"VIRTUAL", "PLATFORM"};
+
+        System.out.printf("%-9s %8s %12s %12s %14s %14s%n",
+                "mode", "plants", "start ms", "heap MB", "OS threads", "oranges/sec");
+        for (String m : modes) {
+            ExecutionMode mode = ExecutionMode.valueOf(m);
+            if (!mode.isSupported()) {
+                System.out.printf("%-9s skipped, not supported on Java %s%n", mode, System.getProperty("java.version"));
+                continue;
+            }
+            run(mode, numPlants, seconds);
+        }
+    }
+
+    /**
+     * Runs one batch of plants in the given mode and prints one result line.
+     */
+    private static void run(ExecutionMode mode, int numPlants, long seconds) {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Plant[] plants = new Plant[numPlants];
+        int started = 0;
+        String failure = null;
+        long heap;
+        int osThreads;
+        long begin = System.nanoTime();
+        try {
+            for (; started < numPlants; started++) {
+                plants[started] = new Plant(started, new PlantConfig().setExecutor(mode));
+                plants[started].startPlant();
+            }
+        } catch (OutOfMemoryError e) {
+            // Usually "unable to create native thread" in platform mode
+            failure = e.getMessage();
+        }
+        long startupMillis = (System.nanoTime() - begin) / 1_000_000;
+        try {
+            Thread.sleep(seconds * 1000);
+        } catch (InterruptedException e) {
+            System.err.println("Scale benchmark interrupted.");
+        }
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        heap = (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024);
+        osThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        long processed = 0;
+        for (int i = 0; i < started; i++) {
+            processed += plants[i].getProcessedOranges();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        for (int i = 0; i < started; i++) {
+            plants[i].stopPlant();
+        }
+        for (int i = 0; i < started; i++) {
+            plants[i].waitToStop();
+        }
+        System.setOut(console);
+        System.out.printf("%-9s %8d %12d %12d %14d %14.0f%n",
+                mode, started, startupMillis, heap, osThreads, processed / elapsed);
+        if (failure != null) {
+            System.out.println("          stopped starting plants after " + started + ": " + failure);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * <h1>StealBenchmark</h1>
+ * Compares isolated plants with plants that share a {@link StealGroup}, when the plants are not equally fast.
+ * <p>
+ * The plants are skewed: every even plant has a single peeler, so peeling (the slowest step) is its bottleneck and
+ * its peeling conveyor stays full, while every odd plant has three peelers that spend much of their time idle. On
+ * their own the slow plants can't use the fast plants' spare peelers; in a steal group they can. For each mode the
+ * benchmark lets the plants warm up until the slow plants' queues have filled, then reports the oranges finished per
+ * second over the measured window and the queue wait percentiles over every stage of every plant, from the stages'
+ * {@link LatencyHistogram}s. The plants' own console output is suppressed while they run.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code ant bench -Dbench.class=StealBenchmark -Dbench.args="4 10"}
+ * (plant count, seconds measured per mode).
+ * </p>
+ */
+public class StealBenchmark {
+    /**
+     * Seconds the plants run before measuring starts.
+     */
+    private static final long WARMUP_SECONDS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        int numPlants = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+
+        System.out.printf("%-9s %7s %12s %10s %10s %10s %10s%n",
+                "mode", "plants", "oranges/sec", "wait p50", "wait p99", "wait p999", "stolen");
+        run("isolated", numPlants, seconds, null);
+        run("steal", numPlants, seconds, new StealGroup());
+    }
+
+    /**
+     * Runs one set of skewed plants and prints one result line.
+     */
+    private static void run(String mode, int numPlants, long seconds, StealGroup group) throws InterruptedException {
+        PrintStream console = System.out;
+        PrintStream errors = System.err;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        Plant[] plants = new Plant[numPlants];
+        for (int i = 0; i < numPlants; i++) {
+            PlantConfig config = new PlantConfig().setWorkers(PlantConfig.PEELER, i % 2 == 0 ? 1 : 3)
+                    .setStealGroup(group).setDrainTimeout(0);
+            plants[i] = new Plant(i, config);
+        }
+        for (Plant p : plants) {
+            p.startPlant();
+        }
+        Thread.sleep(WARMUP_SECONDS * 1000);
+
+        long[] waitsBefore = waits(plants);
+        long processedBefore = processed(plants);
+        long stolenBefore = group == null ? 0 : group.getStolen();
+        long begin = System.nanoTime();
+        Thread.sleep(seconds * 1000);
+        long processed = processed(plants) - processedBefore;
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        long[] waits = LatencyHistogram.since(waits(plants), waitsBefore);
+        long stolen = group == null ? 0 : group.getStolen() - stolenBefore;
+
+        for (Plant p : plants) {
+            p.stopPlant();
+        }
+        for (Plant p : plants) {
+            p.waitToStop();
+        }
+        System.setOut(console);
+        System.setErr(errors);
+        System.out.printf("%-9s %7d %12.1f %8.0fms %8.0fms %8.0fms %10d%n", mode, numPlants, processed / elapsed,
+                millis(waits, 0.5), millis(waits, 0.99), millis(waits, 0.999), stolen);
+    }
+
+    private static long processed(Plant[] plants) {
+        long total = 0;
+        for (Plant p : plants) {
+            total += p.getProcessedOranges();
+        }
+        return total;
+    }
+
+    /**
+     * Adds up the queue wait histograms of every stage of every plant.
+     */
+    private static long[] waits(Plant[] plants) {
+        long[] total = null;
+        for (Plant p : plants) {
+            for (Stage stage : p.getStages()) {
+                long[] snapshot = stage.getQueueWaits().snapshot();
+                if (total == null) {
+                    total = snapshot;
+                } else {
+                    for (int i = 0; i < total.length; i++) {
+                        total[i] += snapshot[i];
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    private static double millis(long[] snapshot, double quantile) {
+        return LatencyHistogram.valueAt(snapshot, quantile) / 1e6;
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * <h1>Backpressure</h1>
+ * What a bounded {@link Conveyor} does when a worker tries to put an {@link Orange} on a full belt.
+ */
+public enum Backpressure {
+    /**
+     * The producing worker waits until the next stage has taken an orange off the belt.
+     * Nothing is lost, and the upstream stages slow down to the pace of the slowest one.
+     */
+    BLOCK,
+    /**
+     * The new orange is thrown away and the producer carries on.
+     */
+    DROP_NEWEST,
+    /**
+     * The orange that has waited longest is thrown away to make room for the new one.
+     */
+    SHED_OLDEST
+}
@@ -0,0 +1,158 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * <h1>BottleAccumulator</h1>
+ * Turns the oranges coming off a plant's bottler into bottles as they arrive.
+ * <p>
+ * The plant used to keep every finished {@link Orange} on an unbounded conveyor and only worked out bottles and waste
+ * from its size after shutdown, so a long run held every orange it ever made. The accumulator only counts: each orange
+ * is let go as soon as it is counted, every {@code orangesPerBottle}-th one fills a bottle, and the bottle count is
+ * live while the plant runs. Memory use stays the same however long the plant runs.
+ * </p>
+ *
+ * <p>
+ * A listener set with {@link #setOnBottle(LongConsumer)} is told about every bottle as it is filled, on the bottler
+ * thread that added its last orange. It should return quickly; the bottler waits for it.
+ * </p>
+ */
+public class BottleAccumulator implements OrangeSink {
+    /**
+     * Oranges needed per bottle.
+     */
+    private final int orangesPerBottle;
+    /**
+     * Oranges received so far. Bottles and the partly filled bottle are derived from it.
+     */
+    private final AtomicLong oranges = new AtomicLong();
+    /**
+     * Registered producers that have not signed off yet.
+     */
+    private final AtomicInteger producers = new AtomicInteger();
+    private volatile boolean finished;
+    /**
+     * Told the number of every bottle filled, {@code null} for nobody.
+     */
+    private volatile LongConsumer onBottle;
+
+    /**
+     * Constructs an empty accumulator.
+     *
+     * @param orangesPerBottle Oranges needed per bottle, at least one.
+     * @throws IllegalArgumentException if {@code orangesPerBottle} is less than one.
+     */
+    public BottleAccumulator(int orangesPerBottle) {
+        if (orangesPerBottle < 1) {
+            throw new IllegalArgumentException("A bottle needs at least 1 orange");
+        }
+        this.orangesPerBottle = orangesPerBottle;
+    }
+
+    /**
+     * Sets who is told about every bottle filled from now on.
+     *
+     * @param onBottle Called with the bottle's number, counting from 1; {@code null} for nobody.
+     */
+    public void setOnBottle(LongConsumer onBottle) {
+        this.onBottle = onBottle;
+    }
+
+    /**
+     * Starts counting from oranges bottled before, e.g. by a run restored from a {@link Checkpoint}. Should be called
+     * before any orange arrives; no bottle events are fired for them.
+     *
+     * @param oranges Oranges already received.
+     */
+    public void restore(long oranges) {
+        this.oranges.set(oranges);
+    }
+
+    /**
+     * Counts one finished orange. The accumulator does not keep it.
+     *
+     * @param orange Finished orange.
+     * @return Always {@code true}.
+     */
+    @Override
+    public boolean put(Orange orange) {
+        added(oranges.incrementAndGet(), 1);
+        return true;
+    }
+
+    /**
+     * Counts a batch of finished oranges with a single update.
+     *
+     * @param batch Finished oranges.
+     * @param n     Number of oranges in {@code batch}.
+     * @return {@code n}.
+     */
+    @Override
+    public int putAll(Orange[] batch, int n) {
+        if (n > 0) {
+            added(oranges.addAndGet(n), n);
+        }
+        return n;
+    }
+
+    /**
+     * Fires a bottle event for every bottle the last {@code n} oranges, bringing the total to {@code total}, filled.
+     */
+    private void added(long total, int n) {
+        LongConsumer listener = onBottle;
+        if (listener == null) {
+            return;
+        }
+        for (long b = (total - n) / orangesPerBottle + 1; b <= total / orangesPerBottle; b++) {
+            listener.accept(b);
+        }
+    }
+
+    @Override
+    public void addProducer() {
+        producers.incrementAndGet();
+    }
+
+    @Override
+    public void producerDone() {
+        if (producers.decrementAndGet() == 0) {
+            finished = true;
+        }
+    }
+
+    /**
+     * Checks whether every registered producer has signed off, so no more oranges will arrive.
+     *
+     * @return {@code true} once the bottlers have all stopped.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Gets the number of oranges received so far.
+     *
+     * @return Number of finished oranges.
+     */
+    public long getOranges() {
+        return oranges.get();
+    }
+
+    /**
+     * Gets the number of bottles filled so far.
+     *
+     * @return Number of full bottles.
+     */
+    public long getBottles() {
+        return oranges.get() / orangesPerBottle;
+    }
+
+    /**
+     * Gets the number of oranges in the bottle that is being filled.
+     *
+     * @return Oranges short of a full bottle, between 0 and {@code orangesPerBottle - 1}.
+     */
+    public int getPartialBottle() {
+        return (int) (oranges.get() % orangesPerBottle);
+    }
+}
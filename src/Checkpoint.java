@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Checkpoint</h1>
+ * Periodically saves what is on each plant's production line to a file, so a restarted plant picks up where the
+ * last one left off instead of counting everything that was on its conveyors as waste.
+ * <p>
+ * Every orange on a given conveyor is in the same {@link Orange.State} (the peeling conveyor only ever holds
+ * {@link Orange.State#Peeled} oranges, and so on), so a plant's whole in-flight state comes down to a handful of
+ * numbers: how many oranges wait on each conveyor, and the plant's fetched, bottled, dropped and abandoned counts.
+ * Saving a plant never walks a conveyor, and costs the same however many oranges are on the line.
+ * </p>
+ *
+ * <h2>Writing:</h2>
+ * <p>
+ * Each plant number owns one fixed-size slot in the file. Every interval the checkpoint thread reads each registered
+ * plant's numbers and rewrites that plant's slot in place, and only if something changed since the last write, so an
+ * idle plant costs no I/O at all. The workers are never involved: the numbers are counters the plant keeps anyway.
+ * The file is handed to the operating system without forcing it to disk, except on {@link #stop()}; a checkpoint
+ * survives the JVM stopping, not the machine.
+ * </p>
+ *
+ * <p>
+ * The numbers are read while the plant runs, downstream first. An orange that moves on in the middle of a checkpoint
+ * may be missed, like the ones the workers are holding at that moment, but never saved twice.
+ * </p>
+ *
+ * <h2>File format:</h2>
+ * <p>
+ * All numbers little-endian. A {@value #HEADER_SIZE}-byte header: magic {@code "ORNGCKP1"} and the slot size. Slot
+ * {@code n} belongs to plant {@code n} and holds {@value #FIELDS} longs: plant number + 1 (0 for an unused slot),
+ * fetched, bottled, dropped, abandoned, waiting to be peeled, squeezed and bottled, and a checksum of the others. A
+ * slot whose checksum doesn't match, say after a write torn by the JVM dying, is ignored and that plant starts over.
+ * </p>
+ */
+public class Checkpoint implements Runnable {
+    static final long MAGIC = 0x31504B43474E524FL; // "ORNGCKP1" read as a little-endian long
+    static final int HEADER_SIZE = 16;
+    static final int FIELDS = 9;
+    static final int SLOT_SIZE = FIELDS * Long.BYTES;
+
+    private final Path file;
+    private final long interval;
+    private final FileChannel channel;
+    /**
+     * Saved states read from the file at startup, by plant number.
+     */
+    private final Map<Integer, Snapshot> saved = new HashMap<Integer, Snapshot>();
+    private final List<Plant> plants = new CopyOnWriteArrayList<Plant>();
+    /**
+     * What was last written to each plant's slot, by plant number, so unchanged plants are skipped.
+     */
+    private final Map<Integer, Snapshot> written = new HashMap<Integer, Snapshot>();
+    /**
+     * Reused for every slot write.
+     */
+    private final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final Thread thread;
+    /**
+     * Released by {@link #stop()}. The writer waits on it between checkpoints instead of being interrupted, since an
+     * interrupt in the middle of a write would close the {@link FileChannel} and lose the last checkpoint.
+     */
+    private final CountDownLatch stopping = new CountDownLatch(1);
+    private long writes;
+
+    /**
+     * Opens a checkpoint file, creating it if it doesn't exist, and reads the plant states saved in it.
+     *
+     * @param file     Checkpoint file.
+     * @param interval Time between checkpoints in milliseconds.
+     * @throws IOException if the file can't be opened, or exists but is not a checkpoint file.
+     */
+    public Checkpoint(Path file, long interval) throws IOException {
+        this.file = file;
+        this.interval = interval;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(MAGIC).putInt(SLOT_SIZE).flip();
+            channel.write(header, 0);
+        } else {
+            load();
+        }
+        thread = new Thread(this, "Checkpoint writer");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Reads every valid slot of an existing file into {@link #saved}.
+     */
+    private void load() throws IOException {
+        ByteBuffer all = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        while (all.hasRemaining() && channel.read(all, all.position()) > 0) {
+            // read until full
+        }
+        all.flip();
+        if (all.limit() < HEADER_SIZE || all.getLong(0) != MAGIC || all.getInt(8) != SLOT_SIZE) {
+            throw new IOException(file + " is not a checkpoint file");
+        }
+        long[] fields = new long[FIELDS];
+        for (int at = HEADER_SIZE; at + SLOT_SIZE <= all.limit(); at += SLOT_SIZE) {
+            for (int f = 0; f < FIELDS; f++) {
+                fields[f] = all.getLong(at + f * Long.BYTES);
+            }
+            if (fields[0] != 0 && fields[FIELDS - 1] == checksum(fields)) {
+                Snapshot s = new Snapshot(fields[1], fields[2], fields[3], fields[4],
+                        new long[]{fields[5], fields[6], fields[7]});
+                saved.put((int) (fields[0] - 1), s);
+                written.put((int) (fields[0] - 1), s);
+            }
+        }
+    }
+
+    /**
+     * Mixes a slot's fields, all but the last, into its checksum.
+     */
+    private static long checksum(long[] fields) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (int f = 0; f < FIELDS - 1; f++) {
+            h = (h ^ fields[f]) * 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+        return h;
+    }
+
+    /**
+     * Gets what was saved for a plant by a previous run.
+     *
+     * @param plant Plant number.
+     * @return Saved state, or {@code null} if there is none.
+     */
+    Snapshot getSaved(int plant) {
+        return saved.get(plant);
+    }
+
+    /**
+     * Adds a plant to the ones saved every interval.
+     *
+     * @param plant Plant to save.
+     */
+    void register(Plant plant) {
+        plants.add(plant);
+    }
+
+    /**
+     * Starts the checkpoint thread.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the checkpoint thread after it has saved every plant one last time, and forces the file to disk.
+     */
+    public void stop() {
+        stopping.countDown();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            System.err.println(thread.getName() + " stop malfunction");
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopping.await(interval, TimeUnit.MILLISECONDS)) {
+                saveAll();
+            }
+        } catch (InterruptedException e) {
+            System.err.println(thread.getName() + " interrupted, saving one last time");
+        }
+        // The last checkpoint, on a channel that is still open
+        saveAll();
+    }
+
+    /**
+     * Saves every registered plant whose state changed since it was last saved.
+     */
+    void saveAll() {
+        for (Plant p : plants) {
+            Snapshot now = p.snapshot();
+            if (now.equals(written.get(p.getNumber()))) {
+                continue;
+            }
+            try {
+                write(p.getNumber(), now);
+                written.put(p.getNumber(), now);
+                writes++;
+            } catch (IOException e) {
+                System.err.println("Could not write checkpoint " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void write(int plant, Snapshot s) throws IOException {
+        long[] fields = {plant + 1L, s.provided, s.processed, s.dropped, s.abandoned,
+                s.waiting[0], s.waiting[1], s.waiting[2], 0};
+        fields[FIELDS - 1] = checksum(fields);
+        slot.clear();
+        for (long f : fields) {
+            slot.putLong(f);
+        }
+        slot.flip();
+        long position = HEADER_SIZE + (long) plant * SLOT_SIZE;
+        while (slot.hasRemaining()) {
+            channel.write(slot, position + slot.position());
+        }
+    }
+
+    /**
+     * Gets the number of plant slots written since this checkpoint was opened.
+     *
+     * @return Number of slot writes.
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * <h1>Snapshot</h1>
+     * The saved state of one plant.
+     */
+    static final class Snapshot {
+        final long provided;
+        final long processed;
+        final long dropped;
+        final long abandoned;
+        /**
+         * Oranges waiting to be peeled, squeezed and bottled.
+         */
+        final long[] waiting;
+
+        Snapshot(long provided, long processed, long dropped, long abandoned, long[] waiting) {
+            this.provided = provided;
+            this.processed = processed;
+            this.dropped = dropped;
+            this.abandoned = abandoned;
+            this.waiting = waiting;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot s = (Snapshot) o;
+            return provided == s.provided && processed == s.processed && dropped == s.dropped
+                    && abandoned == s.abandoned && Arrays.equals(waiting, s.waiting);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(provided * 31 + processed);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>CompactLine</h1>
+ * A production line that moves oranges as plain {@code int} IDs instead of {@link Orange} objects.
+ * <p>
+ * The line owns a fixed pool of orange slots, and an orange is just the index of its slot. Its {@link Orange.State}
+ * is one byte in {@link #states} and the time it was last put on a conveyor one long in {@link #enqueuedAt}. The
+ * stages pass IDs to each other through {@link IntConveyor}s, and the bottler hands every finished orange's slot
+ * back to the {@link #free} pool for the fetcher to reuse. Once its threads are running the line allocates nothing
+ * per orange, so it can run millions of oranges without any garbage collection.
+ * </p>
+ *
+ * <p>
+ * The stages, their worker counts, the cost of each step ({@link Orange#getCostModel()}) and the queue capacity come
+ * from the same {@link PlantConfig} a {@link Plant} uses. The fetcher has to take a free slot before it can fetch, so
+ * the line can never hold more oranges than it has slots; every conveyor behaves as {@link Backpressure#BLOCK} and
+ * no orange is dropped. A {@link Plant} runs on one with {@link Engine#COMPACT}.
+ * </p>
+ */
+public class CompactLine implements ProductionLine {
+    /**
+     * Largest conveyor the line will allocate, so an unbounded {@link PlantConfig#getQueueCapacity()} does not turn
+     * into a multi-gigabyte slot pool.
+     */
+    static final int MAX_QUEUE_CAPACITY = 1 << 16;
+    /**
+     * Orange states by ordinal, read once so the hot path does not clone {@link Orange.State#values()}.
+     */
+    private static final Orange.State[] STATES = Orange.State.values();
+    private static final byte PROCESSED = (byte) Orange.State.Processed.ordinal();
+    /**
+     * Name of the line, used to name its workers.
+     */
+    private final String name;
+    private final PlantConfig config;
+    /**
+     * Per-slot orange state and last enqueue time. A slot's entries are only touched by the worker holding its ID;
+     * the conveyor hand-off makes them visible to the next one.
+     */
+    private final byte[] states;
+    private final long[] enqueuedAt;
+    /**
+     * Slots not holding an orange. The fetcher takes from here and the bottler gives back.
+     */
+    private final IntConveyor free;
+    /**
+     * Conveyor in front of each stage, indexed like {@link PlantConfig#PEELER}; the fetcher's entry is {@code null}.
+     */
+    private final IntConveyor[] conveyors = new IntConveyor[PlantConfig.NUM_STAGES];
+    private final List<Station> stations = new ArrayList<Station>();
+    /**
+     * Oranges processed by each stage, the bottler's count being the finished oranges.
+     */
+    private final LongAdder[] serviced = new LongAdder[PlantConfig.NUM_STAGES];
+    /**
+     * Time spent by each stage on its oranges, and how long oranges waited in front of it.
+     */
+    private final LatencyHistogram[] serviceTimes = new LatencyHistogram[PlantConfig.NUM_STAGES];
+    private final LatencyHistogram[] queueWaits = new LatencyHistogram[PlantConfig.NUM_STAGES];
+    private final LongAdder abandoned = new LongAdder();
+    private volatile boolean fetching;
+    /**
+     * Called once the bottler reaches {@link #target}, {@code null} if there is no target.
+     */
+    private volatile Runnable onTarget;
+    private long target;
+    private final AtomicBoolean targetReached = new AtomicBoolean();
+
+    /**
+     * Constructs a line with every slot free. No threads are started until {@link #start()}.
+     *
+     * @param name   Name of the line.
+     * @param config Worker counts and queue capacity.
+     */
+    public CompactLine(String name, PlantConfig config) {
+        this.name = name;
+        this.config = config;
+        int capacity = Math.min(config.getQueueCapacity(), MAX_QUEUE_CAPACITY);
+        // Enough for every conveyor to be full and every worker to hold one orange
+        int slots = (PlantConfig.NUM_STAGES - 1) * capacity + config.getTotalWorkers();
+        states = new byte[slots];
+        enqueuedAt = new long[slots];
+        free = new IntConveyor(name + " free slots", slots);
+        for (int id = 0; id < slots; id++) {
+            try {
+                free.put(id);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Can't be interrupted on an empty conveyor", e);
+            }
+        }
+        String[] names = {null, "Peeling", "Squeezing", "Bottling"};
+        for (int i = 0; i < PlantConfig.NUM_STAGES; i++) {
+            if (i != PlantConfig.FETCHER) {
+                conveyors[i] = new IntConveyor(names[i], capacity);
+            }
+            serviced[i] = new LongAdder();
+            serviceTimes[i] = new LatencyHistogram();
+            queueWaits[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Starts every stage's workers on {@link PlantConfig#getExecutor()}.
+     */
+    @Override
+    public void start() {
+        String[] workerNames = {"fetcher", "peeler", "squeezer", "bottler"};
+        fetching = true;
+        for (int i = 0; i < PlantConfig.NUM_STAGES; i++) {
+            IntConveyor output = i + 1 < PlantConfig.NUM_STAGES ? conveyors[i + 1] : null;
+            for (int w = 0; w < config.getWorkers(i); w++) {
+                if (output != null) {
+                    output.addProducer();
+                }
+                stations.add(new Station(name + " " + workerNames[i] + " " + (w + 1), i, conveyors[i], output));
+            }
+        }
+        for (Station s : stations) {
+            config.getExecutor().execute(s);
+        }
+    }
+
+    /**
+     * Stops fetching and waits for the line to drain. Oranges still on a conveyor when the drain timeout runs out
+     * are abandoned, as in {@link Plant}.
+     *
+     * @param drainTimeoutMillis How long to let the line drain.
+     * @return {@code true} if every orange was finished.
+     */
+    @Override
+    public boolean stop(long drainTimeoutMillis) {
+        fetching = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        boolean drained = true;
+        for (Station s : stations) {
+            if (!s.clockOut(deadline)) {
+                drained = false;
+                break;
+            }
+        }
+        if (!drained) {
+            free.close();
+            for (IntConveyor c : conveyors) {
+                if (c != null) {
+                    c.close();
+                    abandonAll(c);
+                }
+            }
+            for (Station s : stations) {
+                s.clockOut();
+            }
+            for (IntConveyor c : conveyors) {
+                if (c != null) {
+                    abandonAll(c);
+                }
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Empties a closed conveyor, counting what was on it as abandoned.
+     */
+    private void abandonAll(IntConveyor c) {
+        while (c.poll() != IntConveyor.CLOSED) {
+            abandoned.increment();
+        }
+    }
+
+    /**
+     * Gets the number of oranges fetched so far.
+     *
+     * @return Number of fetched oranges.
+     */
+    @Override
+    public long getProvidedOranges() {
+        return serviced[PlantConfig.FETCHER].sum();
+    }
+
+    /**
+     * Gets the number of oranges bottled so far.
+     *
+     * @return Number of finished oranges.
+     */
+    @Override
+    public long getProcessedOranges() {
+        return serviced[PlantConfig.BOTTLER].sum();
+    }
+
+    @Override
+    public void setTarget(long count, Runnable action) {
+        this.target = count;
+        this.onTarget = action;
+    }
+
+    /**
+     * Gets the number of oranges a stage has processed so far.
+     *
+     * @param stage Stage index, e.g. {@link PlantConfig#PEELER}.
+     * @return Number of processed oranges.
+     */
+    public long getServiced(int stage) {
+        return serviced[stage].sum();
+    }
+
+    /**
+     * Gets the distribution of a stage's service times.
+     *
+     * @param stage Stage index.
+     * @return Service time histogram.
+     */
+    public LatencyHistogram getServiceTimes(int stage) {
+        return serviceTimes[stage];
+    }
+
+    /**
+     * Gets the distribution of how long oranges waited in front of a stage.
+     *
+     * @param stage Stage index.
+     * @return Queue wait histogram, empty for the fetcher.
+     */
+    public LatencyHistogram getQueueWaits(int stage) {
+        return queueWaits[stage];
+    }
+
+    /**
+     * Gets the number of oranges thrown away because the line could not drain them before its deadline.
+     *
+     * @return Number of abandoned oranges.
+     */
+    @Override
+    public long getAbandonedOranges() {
+        return abandoned.sum();
+    }
+
+    /**
+     * Gets the number of oranges waiting in front of a stage.
+     *
+     * @param stage Stage index.
+     * @return Queue depth, 0 for the fetcher.
+     */
+    @Override
+    public int getQueueSize(int stage) {
+        return conveyors[stage] == null ? 0 : conveyors[stage].size();
+    }
+
+    /**
+     * Gets the name of this line.
+     *
+     * @return Line name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Does the work for the state the orange in slot {@code id} is in and moves it to the next state.
+     */
+    private void runProcess(int id) throws InterruptedException {
+        Orange.State state = STATES[states[id]];
+        Orange.getCostModel().work(state, state.timeToComplete);
+        states[id]++;
+    }
+
+    /**
+     * One worker of the line. The same loop as {@link Worker#run()}, on IDs.
+     */
+    private final class Station implements Runnable {
+        private final String threadName;
+        private final int stage;
+        private final IntConveyor input;
+        private final IntConveyor output;
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        Station(String threadName, int stage, IntConveyor input, IntConveyor output) {
+            this.threadName = threadName;
+            this.stage = stage;
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        public void run() {
+            Thread current = Thread.currentThread();
+            String previousName = current.getName();
+            current.setName(threadName);
+            try {
+                CountDownLatch go = config.getStartSignal();
+                if (go != null) {
+                    go.await();
+                }
+                if (input == null) {
+                    fetch();
+                } else {
+                    process();
+                }
+            } catch (InterruptedException e) {
+                ConsoleLog.warn(threadName + " interrupted.");
+            } finally {
+                if (output != null) {
+                    output.producerDone();
+                }
+                current.setName(previousName);
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Fetches into free slots until the line stops fetching. Like an {@link Orange}, which does the fetching work
+         * once when it is created and once more when the fetcher processes it.
+         */
+        private void fetch() throws InterruptedException {
+            Orange.State fetched = STATES[0];
+            while (fetching) {
+                int id = free.take();
+                if (id == IntConveyor.CLOSED) {
+                    break;
+                }
+                long start = System.nanoTime();
+                states[id] = 0;
+                Orange.getCostModel().work(fetched, fetched.timeToComplete);
+                runProcess(id);
+                finish(id, start);
+            }
+        }
+
+        private void process() throws InterruptedException {
+            int id;
+            while ((id = input.take()) != IntConveyor.CLOSED) {
+                long start = System.nanoTime();
+                queueWaits[stage].record(start - enqueuedAt[id]);
+                runProcess(id);
+                finish(id, start);
+            }
+        }
+
+        /**
+         * Records the orange's service time and passes it on, or frees its slot once it is bottled.
+         */
+        private void finish(int id, long start) throws InterruptedException {
+            long now = System.nanoTime();
+            serviced[stage].increment();
+            serviceTimes[stage].record(now - start);
+            if (states[id] == PROCESSED) {
+                free.put(id);
+                Runnable action = onTarget;
+                if (action != null && serviced[stage].sum() >= target && targetReached.compareAndSet(false, true)) {
+                    action.run();
+                }
+                return;
+            }
+            enqueuedAt[id] = now;
+            if (!output.put(id)) {
+                abandoned.increment();
+                free.put(id);
+            }
+        }
+
+        void clockOut() {
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                ConsoleLog.warn(threadName + " was interrupted.");
+            }
+        }
+
+        boolean clockOut(long deadline) {
+            try {
+                return finished.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                ConsoleLog.warn(threadName + " was interrupted.");
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h1>ConsoleLog</h1>
+ * Prints the plants' and workers' console messages from a background thread, so a worker never waits for the console.
+ * <p>
+ * Printing straight to {@link System#out} takes the stream's lock and waits for the write, so thousands of workers
+ * announcing themselves at startup, or a burst of interrupted workers at shutdown, queue up behind each other and
+ * behind the terminal. Here a message is only put on a lock-free queue, and a single daemon thread, the flusher,
+ * prints them in order. The queue is bounded: once {@value #CAPACITY} messages are waiting, further ones are counted
+ * and thrown away rather than making anybody wait, and the flusher reports how many it missed. So a worker can log a
+ * warning from anywhere, e.g. when it is interrupted, without waiting for the console.
+ * </p>
+ *
+ * <h2>Levels:</h2>
+ * <p>
+ * Messages below the current {@link Level} are ignored before anything is queued. The level comes from the
+ * {@code plant.console} system property ({@code debug}, {@code info}, {@code warn}, {@code error} or {@code off};
+ * {@code info} by default) and can be changed with {@link #setLevel(Level)}. {@link Level#WARN} and
+ * {@link Level#ERROR} messages go to {@link System#err}, the rest to {@link System#out}, whichever streams are set
+ * at the time the message is logged.
+ * </p>
+ *
+ * <p>
+ * Messages logged before {@link #flush()} are printed by the time it returns. Anything still queued when the JVM
+ * exits is printed by a shutdown hook.
+ * </p>
+ */
+public final class ConsoleLog {
+    /**
+     * Most messages waiting to be printed at once.
+     */
+    static final int CAPACITY = 1 << 16;
+    /**
+     * Longest {@link #flush()} waits for the flusher, so a stuck console can't hang a shutdown.
+     */
+    private static final long FLUSH_TIMEOUT_MILLIS = 1000;
+
+    private static final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+    /**
+     * Messages on {@link #queue}; kept separately because counting a {@link ConcurrentLinkedQueue} walks it.
+     */
+    private static final AtomicInteger queued = new AtomicInteger();
+    /**
+     * Messages accepted and printed so far, for {@link #flush()}.
+     */
+    private static final AtomicLong accepted = new AtomicLong();
+    private static volatile long printed;
+    private static final LongAdder dropped = new LongAdder();
+    private static final Object printedLock = new Object();
+    private static volatile Level level = parseLevel(System.getProperty("plant.console"), Level.INFO);
+    private static volatile boolean flusherParked;
+    private static final Thread flusher = new Thread(ConsoleLog::flushLoop, "Console log flusher");
+
+    static {
+        flusher.setDaemon(true);
+        flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ConsoleLog::flush, "Console log shutdown"));
+    }
+
+    private ConsoleLog() {
+    }
+
+    /**
+     * <h1>Level</h1>
+     * How important a message is, from least to most.
+     */
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        /**
+         * Only used as a threshold, to turn every message off.
+         */
+        OFF
+    }
+
+    /**
+     * Logs a message about a detail of the plant's inner workings. Ignored unless the level is {@link Level#DEBUG}.
+     *
+     * @param message Message to print.
+     */
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    /**
+     * Logs a message about the plant's normal progress.
+     *
+     * @param message Message to print.
+     */
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    /**
+     * Logs a message about something that went wrong but was dealt with. Printed to {@link System#err}.
+     *
+     * @param message Message to print.
+     */
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    /**
+     * Logs a message about something that went wrong. Printed to {@link System#err}.
+     *
+     * @param message Message to print.
+     */
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    /**
+     * Queues a message for the flusher, unless its level is filtered out or the queue is full. Never blocks.
+     *
+     * @param messageLevel How important the message is.
+     * @param message      Message to print.
+     */
+    public static void log(Level messageLevel, String message) {
+        if (messageLevel.compareTo(level) < 0 || messageLevel == Level.OFF) {
+            return;
+        }
+        if (queued.incrementAndGet() > CAPACITY) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        accepted.incrementAndGet();
+        queue.offer(new Entry(messageLevel.compareTo(Level.WARN) >= 0 ? System.err : System.out, message));
+        if (flusherParked) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    /**
+     * Checks whether messages of a level are printed, to skip building a message nobody will see.
+     *
+     * @param messageLevel Level to check.
+     * @return {@code true} if messages of that level are printed.
+     */
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel != Level.OFF && messageLevel.compareTo(level) >= 0;
+    }
+
+    /**
+     * Gets the least important level that is printed.
+     *
+     * @return Current level.
+     */
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the least important level that is printed from now on.
+     *
+     * @param threshold Level, {@link Level#OFF} to print nothing.
+     */
+    public static void setLevel(Level threshold) {
+        level = threshold;
+    }
+
+    /**
+     * Gets the number of messages thrown away because the queue was full.
+     *
+     * @return Number of dropped messages.
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Waits until every message logged before this call has been printed, for at most a second. Call it before
+     * printing to the console directly, so the output comes out in order.
+     */
+    public static void flush() {
+        long target = accepted.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT_MILLIS);
+        LockSupport.unpark(flusher);
+        synchronized (printedLock) {
+            long left;
+            while (printed < target && (left = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(printedLock, left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The flusher's loop: prints whatever is queued, then parks until a message arrives.
+     */
+    private static void flushLoop() {
+        long reportedDropped = 0;
+        while (true) {
+            int n = 0;
+            PrintStream last = null;
+            Entry e;
+            while ((e = queue.poll()) != null) {
+                queued.decrementAndGet();
+                if (last != null && last != e.out) {
+                    last.flush();
+                }
+                e.out.println(e.message);
+                last = e.out;
+                n++;
+            }
+            long droppedNow = dropped.sum();
+            if (droppedNow > reportedDropped) {
+                System.err.println(String.format(Locale.ROOT, "ConsoleLog: %d messages dropped, queue full",
+                        droppedNow - reportedDropped));
+                reportedDropped = droppedNow;
+            }
+            if (n > 0) {
+                last.flush();
+                synchronized (printedLock) {
+                    printed += n;
+                    printedLock.notifyAll();
+                }
+                continue;
+            }
+            // Announce the park before the last look at the queue, so a message logged in between unparks us
+            flusherParked = true;
+            if (queue.isEmpty()) {
+                LockSupport.park(ConsoleLog.class);
+            }
+            flusherParked = false;
+        }
+    }
+
+    /**
+     * Reads a level name as used in the {@code plant.console} property, case-insensitively.
+     */
+    static Level parseLevel(String name, Level fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown console level " + name + ", using " + fallback);
+            return fallback;
+        }
+    }
+
+    /**
+     * A message waiting to be printed, with the stream it goes to.
+     */
+    private static final class Entry {
+        final PrintStream out;
+        final String message;
+
+        Entry(PrintStream out, String message) {
+            this.out = out;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,569 @@
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h1>Conveyor</h1>
+ * Carries {@link Orange} objects from one {@link Worker} stage to the next inside a {@link Plant}.
+ * <p>
+ * A worker waiting on an empty conveyor parks in {@link #take()} and is woken as soon as an orange is
+ * {@link #put(Orange) put} on the belt, so no stage has to poll or sleep between hand-offs.
+ * </p>
+ * <p>
+ * The belt itself is lock-free. The conveyor's own lock is only taken to park an idle consumer, or by a producer
+ * that sees a parked consumer and has to wake it. There is no lock shared between conveyors or plants.
+ * </p>
+ *
+ * <h2>Shutdown:</h2>
+ * <p>
+ * Shutdown is signalled explicitly with {@link #close()}. A closed conveyor refuses new oranges, but the ones
+ * already on the belt are still handed out. Once it is closed and empty, {@link #take()} returns {@code null},
+ * which tells the consuming worker that its stage is finished.
+ * </p>
+ * <p>
+ * When several workers feed the same conveyor, each registers with {@link #addProducer()} and calls
+ * {@link #producerDone()} when it stops; the conveyor closes itself when the last one is done.
+ * </p>
+ *
+ * <h2>Capacity:</h2>
+ * <p>
+ * A conveyor can be bounded. When a bounded belt is full, its {@link Backpressure} policy decides whether the producer
+ * waits, the new orange is dropped, or the oldest one is shed. Dropped and shed oranges are counted in
+ * {@link #getDropped()}.
+ * </p>
+ *
+ * <h2>Abandoning:</h2>
+ * <p>
+ * If a plant can't drain in time, {@link #abandon()} closes the conveyor and throws away everything still on it.
+ * Those oranges, and any a worker tries to put on the conveyor once it is closed, are counted in
+ * {@link #getAbandoned()}.
+ * </p>
+ *
+ * <h2>Stealing:</h2>
+ * <p>
+ * Workers of another plant in the same {@link StealGroup} may {@link #steal(Orange[], int) steal} oranges from the
+ * tail of the belt while this conveyor's own workers keep taking from the head, so the two rarely touch the same end.
+ * </p>
+ */
+public class Conveyor implements OrangeSink {
+    /**
+     * Name of the conveyor, used when printing queue sizes.
+     */
+    private final String name;
+    /**
+     * Oranges waiting for the next stage, in FIFO order. A deque so thieves can take from the other end.
+     */
+    private final ConcurrentLinkedDeque<Orange> belt = new ConcurrentLinkedDeque<Orange>();
+    /**
+     * Maximum number of oranges on the belt.
+     */
+    private final int capacity;
+    /**
+     * What to do when the belt is full.
+     */
+    private final Backpressure policy;
+    /**
+     * Number of oranges on the belt, including slots reserved by producers that are about to put one there.
+     */
+    private final AtomicInteger count = new AtomicInteger();
+    /**
+     * Oranges thrown away because the belt was full.
+     */
+    private final LongAdder dropped = new LongAdder();
+    /**
+     * Oranges thrown away because the conveyor was closed or abandoned.
+     */
+    private final LongAdder abandoned = new LongAdder();
+    /**
+     * Used only to park and wake workers. Each conveyor has its own lock.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when an orange arrives while a consumer is parked, or when the conveyor is closed.
+     */
+    private final Condition notEmpty = lock.newCondition();
+    /**
+     * Signalled when an orange leaves a full belt while a producer is parked, or when the conveyor is closed.
+     */
+    private final Condition notFull = lock.newCondition();
+    /**
+     * Number of consumers parked (or about to park) on {@link #notEmpty}. Written under {@link #lock}, read by
+     * producers without it so the common case of nobody waiting costs no lock at all.
+     */
+    private volatile int waiting;
+    /**
+     * Number of producers parked (or about to park) on {@link #notFull}, handled the same way as {@link #waiting}.
+     */
+    private volatile int waitingForSpace;
+    /**
+     * Set once by {@link #close()}; no oranges are accepted afterwards.
+     */
+    private volatile boolean closed;
+    /**
+     * Number of registered producers that have not called {@link #producerDone()} yet.
+     */
+    private final AtomicInteger producers = new AtomicInteger();
+
+    /**
+     * Constructs an empty, open, unbounded {@code Conveyor}.
+     *
+     * @param name Conveyor name.
+     */
+    public Conveyor(String name) {
+        this(name, Integer.MAX_VALUE, Backpressure.BLOCK);
+    }
+
+    /**
+     * Constructs an empty, open {@code Conveyor} that holds at most {@code capacity} oranges.
+     *
+     * @param name     Conveyor name.
+     * @param capacity Maximum number of oranges on the belt, at least one.
+     * @param policy   What to do when the belt is full.
+     * @throws IllegalArgumentException if {@code capacity} is less than one.
+     */
+    public Conveyor(String name, int capacity, Backpressure policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Conveyor capacity must be at least 1");
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Places an {@link Orange} on the belt and wakes one waiting worker. If the belt is full the conveyor's
+     * {@link Backpressure} policy applies.
+     *
+     * @param orange {@link Orange} to hand to the next stage.
+     * @return {@code true} if the orange was accepted, {@code false} if it was dropped or the conveyor is closed.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for space.
+     */
+    @Override
+    public boolean put(Orange orange) throws InterruptedException {
+        while (!closed) {
+            if (reserveSlot()) {
+                orange.markEnqueued(System.nanoTime());
+                belt.offer(orange);
+                signalNotEmpty();
+                return true;
+            }
+            switch (policy) {
+                case DROP_NEWEST:
+                    dropped.increment();
+                    return false;
+                case SHED_OLDEST:
+                    // Swap the oldest orange for the new one, the count stays the same
+                    if (belt.poll() != null) {
+                        dropped.increment();
+                        orange.markEnqueued(System.nanoTime());
+                        belt.offer(orange);
+                        signalNotEmpty();
+                        return true;
+                    }
+                    // Consumers emptied the belt in the meantime, try to reserve again
+                    break;
+                default:
+                    awaitSpace();
+            }
+        }
+        abandoned.increment();
+        return false;
+    }
+
+    /**
+     * Reserves room for one orange if the belt is not full.
+     *
+     * @return {@code true} if a slot was reserved.
+     */
+    private boolean reserveSlot() {
+        int c;
+        do {
+            c = count.get();
+            if (c >= capacity) {
+                return false;
+            }
+        } while (!count.compareAndSet(c, c + 1));
+        return true;
+    }
+
+    /**
+     * Wakes a parked consumer, if there is one.
+     */
+    private void signalNotEmpty() {
+        signalNotEmpty(1);
+    }
+
+    /**
+     * Wakes parked consumers after {@code arrived} oranges were put on the belt, if there are any.
+     *
+     * @param arrived Number of oranges that arrived.
+     */
+    private void signalNotEmpty(int arrived) {
+        if (waiting > 0) {
+            lock.lock();
+            try {
+                if (arrived == 1) {
+                    notEmpty.signal();
+                } else {
+                    notEmpty.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reserves room for up to {@code n} oranges, as many as the belt has space for.
+     *
+     * @param n Number of slots wanted.
+     * @return Number of slots reserved.
+     */
+    private int reserveSlots(int n) {
+        int c;
+        int granted;
+        do {
+            c = count.get();
+            granted = (int) Math.min(n, Math.max(0L, (long) capacity - c));
+            if (granted == 0) {
+                return 0;
+            }
+        } while (!count.compareAndSet(c, c + granted));
+        return granted;
+    }
+
+    /**
+     * Places a batch of oranges on the belt. As many as fit are published in one step with a single wake-up; the rest
+     * go through {@link #put(Orange)} one at a time and its {@link Backpressure} policy.
+     *
+     * @param batch Oranges to hand to the next stage.
+     * @param n     Number of oranges in {@code batch} to send.
+     * @return Number of oranges accepted.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for space.
+     */
+    @Override
+    public int putAll(Orange[] batch, int n) throws InterruptedException {
+        int i = 0;
+        if (!closed) {
+            int reserved = reserveSlots(n);
+            long now = System.nanoTime();
+            for (; i < reserved; i++) {
+                batch[i].markEnqueued(now);
+                belt.offer(batch[i]);
+            }
+            if (reserved > 0) {
+                signalNotEmpty(reserved);
+            }
+        }
+        int accepted = i;
+        for (; i < n; i++) {
+            if (put(batch[i])) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Parks the calling producer until the belt has room or the conveyor is closed.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    private void awaitSpace() throws InterruptedException {
+        lock.lock();
+        try {
+            waitingForSpace++;
+            try {
+                while (count.get() >= capacity && !closed) {
+                    notFull.await();
+                }
+            } finally {
+                waitingForSpace--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that an orange has left the belt and wakes a producer waiting for space, if there is one.
+     *
+     * @param o Orange taken from the belt, or {@code null}.
+     * @return {@code o}.
+     */
+    private Orange taken(Orange o) {
+        if (o != null) {
+            count.decrementAndGet();
+            if (waitingForSpace > 0) {
+                lock.lock();
+                try {
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return o;
+    }
+
+    /**
+     * Takes the next {@link Orange} off the belt, parking the calling thread until one is available.
+     *
+     * @return The next {@link Orange}, or {@code null} once the conveyor is closed and empty.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public Orange take() throws InterruptedException {
+        return take(false, 0);
+    }
+
+    /**
+     * Takes the next {@link Orange} off the belt, parking for at most {@code nanos} if {@code timed}.
+     *
+     * @return The next {@link Orange}, or {@code null} if the conveyor is closed and empty or the time ran out.
+     */
+    private Orange take(boolean timed, long nanos) throws InterruptedException {
+        Orange o = belt.poll();
+        if (o != null || (timed && nanos <= 0)) {
+            return taken(o);
+        }
+        lock.lock();
+        try {
+            // Announce ourselves before the second look, so a producer that misses us here sees waiting > 0
+            waiting++;
+            try {
+                while ((o = belt.poll()) == null && !closed) {
+                    if (!timed) {
+                        notEmpty.await();
+                    } else if (nanos > 0) {
+                        nanos = notEmpty.awaitNanos(nanos);
+                    } else {
+                        break;
+                    }
+                }
+                // An orange may have landed between the last poll and the close
+                o = o != null ? o : belt.poll();
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return taken(o);
+    }
+
+    /**
+     * Takes up to {@code max} oranges off the belt in one go. Parks until at least one is available, then takes
+     * whatever else is already waiting without parking again, so a batch never waits to fill up.
+     *
+     * @param into Array to fill, at least {@code max} long.
+     * @param max  Maximum number of oranges to take.
+     * @return Number of oranges taken, 0 once the conveyor is closed and empty.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public int takeBatch(Orange[] into, int max) throws InterruptedException {
+        return takeBatch(into, max, take(false, 0));
+    }
+
+    /**
+     * Takes up to {@code max} oranges off the belt in one go, like {@link #takeBatch(Orange[], int)}, but parks for at
+     * most the given time.
+     *
+     * @param into    Array to fill, at least {@code max} long.
+     * @param max     Maximum number of oranges to take.
+     * @param timeout How long to wait for the first orange, 0 to not wait at all.
+     * @param unit    Unit of {@code timeout}.
+     * @return Number of oranges taken, 0 if the time ran out or the conveyor is closed and empty.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public int takeBatch(Orange[] into, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        return takeBatch(into, max, take(true, unit.toNanos(timeout)));
+    }
+
+    /**
+     * Fills a batch that starts with {@code first}, from whatever is already on the belt.
+     */
+    private int takeBatch(Orange[] into, int max, Orange first) {
+        if (first == null) {
+            return 0;
+        }
+        into[0] = first;
+        int n = 1;
+        Orange o;
+        while (n < max && (o = belt.poll()) != null) {
+            into[n++] = o;
+        }
+        if (n > 1) {
+            left(n - 1);
+        }
+        return n;
+    }
+
+    /**
+     * Takes up to {@code max} of the newest oranges off the tail of the belt, for a worker of another plant. Never
+     * parks. The oranges are returned oldest first.
+     *
+     * @param into Array to fill, at least {@code max} long.
+     * @param max  Maximum number of oranges to take.
+     * @return Number of oranges taken.
+     */
+    public int steal(Orange[] into, int max) {
+        int n = 0;
+        Orange o;
+        while (n < max && (o = belt.pollLast()) != null) {
+            into[n++] = o;
+        }
+        if (n > 0) {
+            left(n);
+            for (int i = 0, j = n - 1; i < j; i++, j--) {
+                Orange t = into[i];
+                into[i] = into[j];
+                into[j] = t;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Puts an orange on the belt before any worker is using the conveyor, e.g. to restore a {@link Checkpoint}. Never
+     * blocks and ignores the capacity, so a plant resumes with everything that was waiting when it was saved even if
+     * its conveyors are now smaller.
+     *
+     * @param orange Orange to put on the belt.
+     */
+    void preload(Orange orange) {
+        count.incrementAndGet();
+        orange.markEnqueued(System.nanoTime());
+        belt.offer(orange);
+    }
+
+    /**
+     * Records that {@code n} oranges have left the belt at once and wakes every producer waiting for space.
+     */
+    private void left(int n) {
+        count.addAndGet(-n);
+        if (waitingForSpace > 0) {
+            lock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Closes the conveyor. Oranges already on the belt can still be taken, and every waiting worker is woken
+     * so it can notice the shutdown. Should only be called once everything feeding this conveyor has stopped.
+     */
+    public void close() {
+        closed = true;
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the conveyor and throws away every orange still on it. Waiting workers are woken and see an empty,
+     * closed conveyor. Calling it again picks up oranges that landed after the first call.
+     *
+     * @return Number of oranges thrown away by this call.
+     */
+    public int abandon() {
+        close();
+        int n = 0;
+        while (belt.poll() != null) {
+            count.decrementAndGet();
+            n++;
+        }
+        abandoned.add(n);
+        return n;
+    }
+
+    /**
+     * Registers one more producer feeding this conveyor.
+     */
+    @Override
+    public void addProducer() {
+        producers.incrementAndGet();
+    }
+
+    /**
+     * Called by a registered producer once it has sent its last orange. Closes the conveyor when no producers are left.
+     */
+    @Override
+    public void producerDone() {
+        if (producers.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Checks whether {@link #close()} has been called.
+     *
+     * @return {@code true} if the conveyor is closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Gets the number of oranges currently on the belt.
+     *
+     * @return Number of waiting oranges.
+     */
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * Gets the maximum number of oranges this conveyor holds.
+     *
+     * @return Capacity, {@link Integer#MAX_VALUE} if unbounded.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of oranges thrown away because the belt was full.
+     *
+     * @return Number of dropped or shed oranges.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Gets the number of oranges thrown away because the conveyor was closed or abandoned.
+     *
+     * @return Number of abandoned oranges.
+     */
+    public long getAbandoned() {
+        return abandoned.sum();
+    }
+
+    /**
+     * Checks whether the belt is currently empty.
+     *
+     * @return {@code true} if no oranges are waiting.
+     */
+    public boolean isEmpty() {
+        return belt.isEmpty();
+    }
+
+    /**
+     * Gets the conveyor's name.
+     *
+     * @return Conveyor name.
+     */
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * <h1>CostModel</h1>
+ * Decides what "doing the work" of a processing stage means for an {@link Orange}.
+ * <p>
+ * Every time an orange is created or advanced, {@link Orange} hands its current {@link Orange.State} to the active
+ * cost model, set with {@link Orange#setCostModel(CostModel)}. The standard models are in {@link StandardCost}:
+ * sleeping for the state's time (the original behaviour), burning the same amount of CPU, or nothing at all.
+ * </p>
+ */
+public interface CostModel {
+    /**
+     * Performs the work of one processing stage.
+     *
+     * @param state         State the orange is in while the work is done.
+     * @param timeToComplete Nominal time of that stage in milliseconds, {@code state}'s time to complete.
+     * @throws InterruptedException if the calling thread is interrupted while working.
+     */
+    void work(Orange.State state, int timeToComplete) throws InterruptedException;
+}
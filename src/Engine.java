@@ -0,0 +1,21 @@
+/**
+ * <h1>Engine</h1>
+ * Chooses how a {@link Plant} moves oranges between its stages, see {@link PlantConfig#setEngine(Engine)}.
+ */
+public enum Engine {
+    /**
+     * {@link Worker}s passing {@link Orange} objects over one {@link Conveyor} per stage, the original wiring. The
+     * only engine that supports batching, the {@link StageBalancer}, {@link Backpressure} policies other than
+     * blocking, and per-stage {@link MetricsReporter} output.
+     */
+    CONVEYORS,
+    /**
+     * A {@link CompactLine}: {@code int} orange IDs over one {@link IntConveyor} per stage.
+     */
+    COMPACT,
+    /**
+     * A {@link RingLine}: one pre-allocated ring per plant, with every stage following the one before it around the
+     * ring.
+     */
+    RING
+}
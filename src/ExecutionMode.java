@@ -0,0 +1,71 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <h1>ExecutionMode</h1>
+ * Chooses what kind of thread each {@link Plant} and {@link Worker} runs on.
+ * <p>
+ * All of a worker's time is spent in {@code Thread.sleep} inside {@link Orange} or parked on a {@link Conveyor},
+ * so a dedicated OS thread per worker runs out of threads long before it runs out of CPU. {@link #VIRTUAL} runs the
+ * same code on virtual threads instead, which lets a single JVM hold thousands of plants.
+ * </p>
+ *
+ * <p>
+ * Both modes are plain {@link Executor}s. Any other {@code Executor} can be plugged in through
+ * {@link PlantConfig#setExecutor(Executor)}, as long as it gives every task its own thread: plants and workers block
+ * for their whole lifetime.
+ * </p>
+ */
+public enum ExecutionMode implements Executor {
+    /**
+     * One dedicated platform thread per plant and per worker, the original behaviour.
+     */
+    PLATFORM {
+        @Override
+        public void execute(Runnable task) {
+            new Thread(task).start();
+        }
+    },
+    /**
+     * One virtual thread per plant and per worker. Needs Java 21 or newer at run time.
+     */
+    VIRTUAL {
+        @Override
+        public void execute(Runnable task) {
+            VirtualThreads.FACTORY.newThread(task).start();
+        }
+    };
+
+    /**
+     * Checks whether this mode can run on the current JVM.
+     *
+     * @return {@code true} if threads of this kind can be created.
+     */
+    public boolean isSupported() {
+        if (this == PLATFORM) {
+            return true;
+        }
+        try {
+            return VirtualThreads.FACTORY != null;
+        } catch (ExceptionInInitializerError | NoClassDefFoundError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Looks up the virtual thread factory the first time {@link #VIRTUAL} is used. Reflection keeps the plant
+     * compiling on Java 17, where virtual threads don't exist yet.
+     */
+    private static final class VirtualThreads {
+        static final ThreadFactory FACTORY = lookup();
+
+        private static ThreadFactory lookup() {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new UnsupportedOperationException("Virtual threads need Java 21 or newer", e);
+            }
+        }
+    }
+}
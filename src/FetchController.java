@@ -0,0 +1,156 @@
+/**
+ * <h1>FetchController</h1>
+ * Sets how fast a {@link Plant}'s fetchers bring in oranges from how fast its later stages are finishing them, so the
+ * plant fetches about what it can bottle instead of as much as the fetchers can carry.
+ * <p>
+ * Every {@link PlantConfig#getControlInterval()} milliseconds the controller looks at the peeler, squeezer and bottler:
+ * </p>
+ * <ul>
+ *     <li><b>Capacity:</b> a stage with oranges waiting in front of it was busy, so what it finished per second is
+ *     what it can do. A stage with nothing waiting may have idled, so it can do at least as much as its workers manage
+ *     at their average service time. The slowest stage sets the plant's capacity.</li>
+ *     <li><b>Depth:</b> one orange waiting per worker is enough to keep every worker busy. Oranges waiting beyond that
+ *     are excess, and the rate is lowered to work them off over the next few intervals.</li>
+ * </ul>
+ * <p>
+ * The fetch rate is then the capacity minus the excess to work off, but never less than one orange per second. It
+ * starts at the capacity the stages' expected service times allow. The rate goes to a {@link FetchPacer} that only
+ * the plant's own fetchers use. Fetchers never hold a slot ahead of time: each new rate wakes the ones waiting, so a
+ * raise reaches them at once, and a plant that stops lets them go however low the rate had been set.
+ * </p>
+ */
+public class FetchController implements Runnable {
+    /**
+     * Number of intervals over which excess oranges are worked off.
+     */
+    private static final int HORIZON = 4;
+    /**
+     * Lowest rate the controller sets, in oranges per second.
+     */
+    private static final double MIN_RATE = 1;
+
+    /**
+     * Stages of the plant, in production line order.
+     */
+    private final Stage[] stages;
+    /**
+     * Time between adjustments in milliseconds.
+     */
+    private final long interval;
+    private final FetchPacer pacer = new FetchPacer(0);
+    /**
+     * Controller's thread.
+     */
+    private final Thread thread;
+    /**
+     * Cleared by {@link #stop()}.
+     */
+    private volatile boolean running;
+    /**
+     * Oranges each stage had finished at the last adjustment, and when that was.
+     */
+    private final long[] lastServiced;
+    private long lastNanos;
+
+    /**
+     * Constructs a {@code FetchController}. Call {@link #start()} to begin controlling.
+     *
+     * @param name     Name of the plant being controlled.
+     * @param stages   Stages of that plant; must all exist by the time {@link #start()} is called.
+     * @param interval Time between adjustments in milliseconds.
+     */
+    public FetchController(String name, Stage[] stages, long interval) {
+        this.stages = stages;
+        this.interval = interval;
+        this.lastServiced = new long[stages.length];
+        this.thread = new Thread(this, name + " fetch controller");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Gets the pacer the controller sets, for the plant's fetchers.
+     *
+     * @return Fetch pacer.
+     */
+    public FetchPacer getPacer() {
+        return pacer;
+    }
+
+    /**
+     * Sets the starting rate and starts the controller's thread.
+     */
+    public void start() {
+        double capacity = Double.POSITIVE_INFINITY;
+        for (int s = PlantConfig.FETCHER + 1; s < stages.length; s++) {
+            capacity = Math.min(capacity, modelRate(stages[s]));
+            lastServiced[s] = stages[s].getServiced();
+        }
+        lastNanos = System.nanoTime();
+        pacer.setRate(Math.max(MIN_RATE, capacity));
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the controller and waits for it to finish its current adjustment. The rate stays where it was.
+     */
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            ConsoleLog.warn(thread.getName() + " stop malfunction");
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                break;
+            }
+            adjust();
+        }
+    }
+
+    /**
+     * Sets the fetch rate from what the stages did since the last adjustment.
+     */
+    void adjust() {
+        long now = System.nanoTime();
+        double seconds = (now - lastNanos) / 1e9;
+        lastNanos = now;
+        double capacity = Double.POSITIVE_INFINITY;
+        long excess = 0;
+        for (int s = PlantConfig.FETCHER + 1; s < stages.length; s++) {
+            Stage stage = stages[s];
+            long serviced = stage.getServiced();
+            double finished = (serviced - lastServiced[s]) / seconds;
+            lastServiced[s] = serviced;
+            int waiting = stage.getInput().size();
+            capacity = Math.min(capacity, waiting > 0 ? finished : Math.max(finished, modelRate(stage)));
+            excess += Math.max(0, waiting - stage.getWorkerCount());
+        }
+        double rate = capacity - excess / (HORIZON * interval / 1000.0);
+        pacer.setRate(Math.max(MIN_RATE, rate));
+    }
+
+    /**
+     * Gets the rate a stage's workers manage at their average service time.
+     */
+    private static double modelRate(Stage stage) {
+        return stage.getWorkerCount() * 1e9 / Math.max(1, stage.getAverageServiceNanos());
+    }
+
+    /**
+     * Gets the fetch rate the controller set last.
+     *
+     * @return Oranges per second.
+     */
+    public double getRate() {
+        return pacer.getRate();
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * <h1>FetchPacer</h1>
+ * Limits how fast fetchers bring in new oranges, e.g. to the share of a fleet's target rate one process was given by a
+ * {@link FleetCoordinator}. One pacer can be shared by the fetchers of any number of plants, which then fetch at the
+ * pacer's rate between them.
+ * <p>
+ * There is one time slot per {@code 1 / rate} seconds. A fetcher parks until the next slot comes and then takes it,
+ * so no fetcher holds on to a slot in the future. Slots that went by unused are not made up for later, so a fetcher
+ * that was slower than the rate for a while doesn't cause a burst afterwards.
+ * </p>
+ *
+ * <p>
+ * The rate can be changed at any time. The next slot moves with it and waiting fetchers are woken to look again, so a
+ * higher rate takes effect right away. Fetchers that are told to stop are woken too, see {@link #wake()}, so a paced
+ * plant stops as quickly as an unpaced one.
+ * </p>
+ */
+public class FetchPacer {
+    /**
+     * Time between two fetches in nanoseconds, 0 when fetching is not paced.
+     */
+    private volatile long intervalNanos;
+    /**
+     * {@link System#nanoTime()} of the next free slot.
+     */
+    private final AtomicLong next = new AtomicLong(System.nanoTime());
+    /**
+     * Fetchers parked in {@link #acquire(BooleanSupplier)}.
+     */
+    private final Set<Thread> waiting = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs a pacer.
+     *
+     * @param rate Oranges per second, 0 for as fast as the fetchers can go.
+     * @throws IllegalArgumentException if {@code rate} is negative or not a number.
+     */
+    public FetchPacer(double rate) {
+        setRate(rate);
+    }
+
+    /**
+     * Changes the rate.
+     *
+     * @param rate Oranges per second, 0 for as fast as the fetchers can go.
+     * @throws IllegalArgumentException if {@code rate} is negative or not a number.
+     */
+    public void setRate(double rate) {
+        if (!(rate >= 0)) {
+            throw new IllegalArgumentException("Fetch rate can't be negative, got " + rate);
+        }
+        // Rates above a billion per second are as good as unpaced
+        long interval = rate == 0 ? 0 : Math.max(1, (long) (1e9 / rate));
+        long previous = intervalNanos;
+        intervalNanos = interval;
+        if (interval == previous) {
+            return;
+        }
+        if (interval > 0 && previous > 0) {
+            // The next slot was one old interval after the last fetch, make it one new interval after it
+            next.addAndGet(interval - previous);
+        }
+        wake();
+    }
+
+    /**
+     * Gets the rate.
+     *
+     * @return Oranges per second, 0 if fetching is not paced.
+     */
+    public double getRate() {
+        long interval = intervalNanos;
+        return interval == 0 ? 0 : 1e9 / interval;
+    }
+
+    /**
+     * Waits until the calling fetcher may fetch its next orange. Returns right away when not paced.
+     *
+     * @param stopped Tells whether the fetcher has been told to stop; it then stops waiting without taking a slot.
+     *                Checked again whenever the fetcher is {@link #wake() woken}.
+     * @return {@code true} if the fetcher may fetch, {@code false} if it was told to stop first.
+     * @throws InterruptedException if the fetcher is interrupted while waiting.
+     */
+    boolean acquire(BooleanSupplier stopped) throws InterruptedException {
+        if (intervalNanos == 0) {
+            return true;
+        }
+        Thread fetcher = Thread.currentThread();
+        waiting.add(fetcher);
+        try {
+            while (!stopped.getAsBoolean()) {
+                long interval = intervalNanos;
+                if (interval == 0) {
+                    return true;
+                }
+                long now = System.nanoTime();
+                long free = next.get();
+                if (free - now > 0) {
+                    LockSupport.parkNanos(this, free - now);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    continue;
+                }
+                // Woken a little late still counts as on time; a slot more than an interval ago went by unused
+                long slot = now - free < interval ? free : now;
+                if (next.compareAndSet(free, slot + interval)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            waiting.remove(fetcher);
+        }
+    }
+
+    /**
+     * Wakes every fetcher waiting for a slot, so it checks again whether it was told to stop and when the next slot
+     * is. Called when the rate changes and when a plant stops its fetchers.
+     */
+    void wake() {
+        for (Thread fetcher : waiting) {
+            LockSupport.unpark(fetcher);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return intervalNanos == 0 ? "unpaced" : String.format(Locale.ROOT, "%.1f/s", getRate());
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntFunction;
+
+/**
+ * <h1>Fleet</h1>
+ * Starts a large number of {@link Plant}s at once, and measures how long it takes until they are all working.
+ * <p>
+ * Starting plants one after another from a single thread makes startup grow with the number of plants: the starting
+ * thread creates every plant and hands each one to its executor in turn. A fleet splits the plants between several
+ * builder threads instead, each of which constructs and starts its share. Every plant then creates its own workers
+ * on its own thread, so the workers of different plants are created in parallel too. How much that gains depends on
+ * the processors there are to create threads on; {@code FleetBenchmark} compares it with a single builder.
+ * </p>
+ *
+ * <p>
+ * Workers that start working as soon as they exist compete for the CPU with the threads still creating the rest of
+ * the fleet, and with enough plants that slows startup down far more than creating the threads does. So the plants get
+ * a {@link PlantConfig#setStartSignal start signal}: every worker is created and then waits, and the whole fleet is
+ * let go at once. {@link #start()} returns once it has been.
+ * </p>
+ *
+ * <h2>Metrics:</h2>
+ * <ul>
+ *     <li><b>Startup:</b> from calling {@link #start()} until every plant has created its workers and they have been
+ *     let go.</li>
+ *     <li><b>First bottle:</b> from calling {@link #start()} until the first plant filled its first bottle, and until
+ *     every plant has filled at least one. Only plants that run on {@link Engine#CONVEYORS} report bottles this way;
+ *     the other engines don't fill a {@link BottleAccumulator}.</li>
+ * </ul>
+ */
+public class Fleet {
+    private final Plant[] plants;
+    private final IntFunction<PlantConfig> configs;
+    /**
+     * Number of threads that construct and start the plants.
+     */
+    private int builders = Runtime.getRuntime().availableProcessors();
+    /**
+     * Nanoseconds from {@link #begin} to each plant's first bottle, -1 until it has one.
+     */
+    private final AtomicLongArray firstBottle;
+    private final CountDownLatch everyPlantBottled;
+    /**
+     * Holds every worker of the fleet until all plants have been built.
+     */
+    private final CountDownLatch go = new CountDownLatch(1);
+    private long begin;
+    private long startupNanos = -1;
+
+    /**
+     * Constructs a fleet. No plant exists until {@link #start()}.
+     *
+     * @param numPlants Number of plants, at least one.
+     * @param configs   Makes the config for each plant number. Called once per plant, from the builder threads, so
+     *                  it must be thread-safe; plants in a {@link StealGroup} each need their own config. The fleet
+     *                  sets each config's start signal.
+     * @throws IllegalArgumentException if {@code numPlants} is less than one.
+     */
+    public Fleet(int numPlants, IntFunction<PlantConfig> configs) {
+        if (numPlants < 1) {
+            throw new IllegalArgumentException("A fleet needs at least 1 plant");
+        }
+        this.configs = configs;
+        plants = new Plant[numPlants];
+        firstBottle = new AtomicLongArray(numPlants);
+        for (int i = 0; i < numPlants; i++) {
+            firstBottle.set(i, -1);
+        }
+        everyPlantBottled = new CountDownLatch(numPlants);
+    }
+
+    /**
+     * Sets how many threads construct and start the plants. 1 starts them one after another, like a plain loop.
+     *
+     * @param builders Number of builder threads, at least one.
+     * @return This fleet.
+     * @throws IllegalArgumentException if {@code builders} is less than one.
+     */
+    public Fleet setBuilders(int builders) {
+        if (builders < 1) {
+            throw new IllegalArgumentException("A fleet needs at least 1 builder");
+        }
+        this.builders = builders;
+        return this;
+    }
+
+    /**
+     * Constructs and starts every plant, waits until all of them have created their workers, then lets every worker
+     * start working.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     * @throws IllegalStateException if a builder failed to construct or start its plants.
+     */
+    public void start() throws InterruptedException {
+        try {
+            buildAll();
+        } finally {
+            // Never leave workers waiting, not even those of a fleet that failed to start
+            go.countDown();
+        }
+        startupNanos = System.nanoTime() - begin;
+    }
+
+    /**
+     * Builds the plants on the builder threads and waits until all of them have their workers waiting to start.
+     */
+    private void buildAll() throws InterruptedException {
+        begin = System.nanoTime();
+        int n = Math.min(builders, plants.length);
+        Thread[] threads = new Thread[n];
+        Throwable[] failures = new Throwable[n];
+        for (int b = 0; b < n; b++) {
+            final int builder = b;
+            // The calling thread builds the last share itself
+            Runnable share = () -> {
+                try {
+                    for (int i = builder; i < plants.length; i += n) {
+                        build(i);
+                    }
+                } catch (RuntimeException | Error e) {
+                    failures[builder] = e;
+                }
+            };
+            if (b < n - 1) {
+                threads[b] = new Thread(share, "Fleet builder " + b);
+                threads[b].start();
+            } else {
+                share.run();
+            }
+        }
+        for (int b = 0; b < n - 1; b++) {
+            threads[b].join();
+        }
+        for (Throwable failure : failures) {
+            if (failure != null) {
+                throw new IllegalStateException("Could not start the fleet", failure);
+            }
+        }
+        for (Plant p : plants) {
+            while (!p.awaitStarted(TimeUnit.SECONDS.toNanos(1))) {
+                // Keep waiting; a plant only fails to start if its executor never runs it
+            }
+        }
+    }
+
+    /**
+     * Constructs plant {@code i}, watches for its first bottle and starts it.
+     */
+    private void build(int i) {
+        Plant p = new Plant(i, configs.apply(i).setStartSignal(go));
+        BottleAccumulator bottles = p.processedOranges;
+        bottles.setOnBottle(bottle -> {
+            if (firstBottle.compareAndSet(i, -1, System.nanoTime() - begin)) {
+                bottles.setOnBottle(null);
+                everyPlantBottled.countDown();
+            }
+        });
+        plants[i] = p;
+        p.startPlant();
+    }
+
+    /**
+     * Tells every plant to stop and waits for them all to shut down.
+     */
+    public void stop() {
+        for (Plant p : plants) {
+            if (p != null) {
+                p.stopPlant();
+            }
+        }
+        waitToStop();
+    }
+
+    /**
+     * Waits for every plant to stop on its own, e.g. after its {@link PlantConfig#getRunTime() run time}.
+     */
+    public void waitToStop() {
+        for (Plant p : plants) {
+            if (p != null) {
+                p.waitToStop();
+            }
+        }
+    }
+
+    /**
+     * Waits until every plant has filled at least one bottle.
+     *
+     * @param timeout Longest time to wait.
+     * @param unit    Unit of {@code timeout}.
+     * @return {@code true} if every plant had a bottle in time.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public boolean awaitEveryPlantBottled(long timeout, TimeUnit unit) throws InterruptedException {
+        return everyPlantBottled.await(timeout, unit);
+    }
+
+    /**
+     * Gets the plants, indexed by plant number. Entries are {@code null} until {@link #start()} has built them.
+     *
+     * @return Plants of this fleet.
+     */
+    public Plant[] getPlants() {
+        return plants;
+    }
+
+    /**
+     * Gets when {@link #start()} was called.
+     *
+     * @return {@link System#nanoTime()} at the start of the fleet.
+     */
+    public long getBeginNanos() {
+        return begin;
+    }
+
+    /**
+     * Gets how long {@link #start()} took to build every plant and let its workers go.
+     *
+     * @return Startup time in nanoseconds, -1 if the fleet has not finished starting.
+     */
+    public long getStartupNanos() {
+        return startupNanos;
+    }
+
+    /**
+     * Gets the time from {@link #start()} until the first bottle of the whole fleet was filled.
+     *
+     * @return Time to first bottle in nanoseconds, -1 if no plant has filled a bottle yet.
+     */
+    public long getFirstBottleNanos() {
+        long first = -1;
+        for (int i = 0; i < plants.length; i++) {
+            long t = firstBottle.get(i);
+            if (t >= 0 && (first < 0 || t < first)) {
+                first = t;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Gets the time from {@link #start()} until every plant had filled at least one bottle.
+     *
+     * @return Time until the last plant's first bottle in nanoseconds, -1 if some plant has no bottle yet.
+     */
+    public long getEveryPlantBottledNanos() {
+        long last = -1;
+        for (int i = 0; i < plants.length; i++) {
+            long t = firstBottle.get(i);
+            if (t < 0) {
+                return -1;
+            }
+            last = Math.max(last, t);
+        }
+        return last;
+    }
+}
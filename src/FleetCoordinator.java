@@ -0,0 +1,369 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>FleetCoordinator</h1>
+ * Runs the plants of a {@link RunSettings.Point} in several JVMs on this host instead of one: starts
+ * {@code processes} {@link FleetMember} processes of {@code plants} plants each, gathers their counts over a local
+ * socket while they run, and splits the target fetch rate between them.
+ * <p>
+ * Each process has its own heap and its own garbage collector, so comparing e.g. {@code processes=4 plants=2} with
+ * {@code plants=8} shows whether splitting the plants between processes beats one large heap.
+ * </p>
+ *
+ * <h2>Rebalancing:</h2>
+ * <p>
+ * With a {@code fetchRate}, every process starts with an equal share of it. Each report interval the coordinator looks
+ * at what every process did with its share since the last report:
+ * </p>
+ * <ul>
+ *     <li>a process that did not finish about as many oranges as it fetched is falling behind, and its share is cut
+ *     to what it finished;</li>
+ *     <li>a process that kept up and used its whole share asks for a quarter more;</li>
+ *     <li>a process that kept up without using its share keeps what it used.</li>
+ * </ul>
+ * <p>
+ * The asks are then scaled so that the shares add up to the target rate again, moving rate from the processes that
+ * fall behind to those with room to spare. Every process keeps at least a tenth of an equal share, so one that
+ * recovers can show it. Without a {@code fetchRate} the processes run as fast as they can and are only counted.
+ * </p>
+ *
+ * <p>
+ * The processes run as long as the point's run time, counted from when they were all told to start, and are then
+ * stopped and drained together. {@code plant.coordinator.interval} sets the report interval in milliseconds (1000 by
+ * default), and {@code plant.fleet.jvmArgs} adds JVM options to every process, e.g. {@code -Xmx256m}. The processes
+ * print to this process's console, at this process's {@link ConsoleLog} level.
+ * </p>
+ */
+public class FleetCoordinator {
+    /**
+     * How long the processes get to start and connect.
+     */
+    private static final int CONNECT_TIMEOUT = 60_000;
+    /**
+     * Order of the counts in a member's report.
+     */
+    private static final int FETCHED = 0;
+    private static final int PROCESSED = 1;
+    private static final int BOTTLES = 2;
+    private static final int WASTED = 3;
+    private static final int DROPPED = 4;
+    private static final int ABANDONED = 5;
+
+    private final RunSettings.Point point;
+    private final long interval = Long.getLong("plant.coordinator.interval", 1000);
+    private final Member[] members;
+    /**
+     * Seconds from telling the processes to start until they had all stopped.
+     */
+    private double seconds;
+
+    /**
+     * Constructs a coordinator. Nothing runs until {@link #run()}.
+     *
+     * @param point Settings of the run, with at least one process.
+     * @throws IllegalArgumentException if the point has no processes.
+     */
+    public FleetCoordinator(RunSettings.Point point) {
+        if (point.getProcesses() < 1) {
+            throw new IllegalArgumentException("A coordinator needs at least 1 process");
+        }
+        this.point = point;
+        members = new Member[point.getProcesses()];
+    }
+
+    /**
+     * Starts the processes, runs them for the point's run time while rebalancing their fetch rates, stops them and
+     * collects their final counts.
+     *
+     * @throws IOException          if a process can't be started, doesn't connect or breaks off.
+     * @throws InterruptedException if the coordinator is interrupted; the processes are stopped.
+     */
+    public void run() throws IOException, InterruptedException {
+        int n = members.length;
+        try (ServerSocket server = new ServerSocket(0, n, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(CONNECT_TIMEOUT);
+            Process[] processes = new Process[n];
+            try {
+                for (int i = 0; i < n; i++) {
+                    processes[i] = launch(server.getLocalPort(), i);
+                }
+                for (int i = 0; i < n; i++) {
+                    Member m = accept(server);
+                    members[m.number] = m;
+                }
+
+                double share = point.getFetchRate() / n;
+                long begin = System.nanoTime();
+                long end = begin + TimeUnit.MILLISECONDS.toNanos(point.getRunTime());
+                for (Member m : members) {
+                    m.rate = share;
+                    m.send("go " + share);
+                }
+                receiveAll();
+                long last = System.nanoTime();
+                boolean warm = false;
+                for (long now = last; now - end < 0; now = System.nanoTime()) {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(end - now, TimeUnit.MILLISECONDS.toNanos(interval)));
+                    // The first interval fills the lines, so nobody keeps up with their fetches yet
+                    if (warm && point.getFetchRate() > 0) {
+                        rebalance((System.nanoTime() - last) / 1e9);
+                    }
+                    warm = true;
+                    last = System.nanoTime();
+                    for (Member m : members) {
+                        m.send("rate " + m.rate);
+                    }
+                    receiveAll();
+                }
+                for (Member m : members) {
+                    m.send("stop");
+                }
+                receiveAll();
+                seconds = (System.nanoTime() - begin) / 1e9;
+            } finally {
+                for (Member m : members) {
+                    if (m != null) {
+                        m.socket.close();
+                    }
+                }
+                for (Process p : processes) {
+                    if (p != null && !p.waitFor(10, TimeUnit.SECONDS)) {
+                        p.destroyForcibly();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts member process {@code i}, in the same Java and on the same class path as this one.
+     */
+    private Process launch(int port, int i) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        String jvmArgs = System.getProperty("plant.fleet.jvmArgs");
+        if (jvmArgs != null && !jvmArgs.trim().isEmpty()) {
+            command.addAll(Arrays.asList(jvmArgs.trim().split("\\s+")));
+        }
+        command.add("-Dplant.console=" + ConsoleLog.getLevel().name().toLowerCase(Locale.ROOT));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(FleetMember.class.getName());
+        command.add("coordinator=" + port);
+        command.add("member=" + i);
+        command.addAll(point.toArgs());
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * Waits for the next process to connect and say which member it is.
+     */
+    private Member accept(ServerSocket server) throws IOException {
+        Socket socket;
+        try {
+            socket = server.accept();
+        } catch (SocketTimeoutException e) {
+            throw new IOException("Fleet processes did not connect within " + CONNECT_TIMEOUT / 1000 + " s", e);
+        }
+        socket.setTcpNoDelay(true);
+        Member m = new Member(socket);
+        String hello = m.in.readLine();
+        if (hello == null || !hello.startsWith("hello ")) {
+            socket.close();
+            throw new IOException("Expected hello from a fleet process, got " + hello);
+        }
+        m.number = Integer.parseInt(hello.substring("hello ".length()).trim());
+        if (m.number < 0 || m.number >= members.length || members[m.number] != null) {
+            socket.close();
+            throw new IOException("Unexpected fleet member " + m.number);
+        }
+        return m;
+    }
+
+    /**
+     * Reads the report every member sends back after a command. The members act on the command in parallel.
+     */
+    private void receiveAll() throws IOException {
+        for (Member m : members) {
+            String line = m.in.readLine();
+            if (line == null || !line.startsWith("report ")) {
+                throw new IOException("Fleet member " + m.number + " broke off, last said " + line);
+            }
+            String[] counts = line.substring("report ".length()).trim().split(" ");
+            System.arraycopy(m.counts, 0, m.previous, 0, m.counts.length);
+            for (int c = 0; c < m.counts.length; c++) {
+                m.counts[c] = Long.parseLong(counts[c]);
+            }
+        }
+    }
+
+    /**
+     * Moves fetch rate from the members that fall behind to those with room to spare, see the class comment.
+     */
+    private void rebalance(double seconds) {
+        double floor = point.getFetchRate() / members.length / 10;
+        double[] asks = new double[members.length];
+        double total = 0;
+        for (int i = 0; i < members.length; i++) {
+            Member m = members[i];
+            long fetched = m.counts[FETCHED] - m.previous[FETCHED];
+            long finished = done(m.counts) - done(m.previous);
+            double ask;
+            if (finished < 0.95 * fetched) {
+                ask = finished / seconds;
+            } else if (fetched >= 0.9 * m.rate * seconds) {
+                ask = m.rate * 1.25;
+            } else {
+                ask = fetched / seconds;
+            }
+            asks[i] = Math.max(floor, ask);
+            total += asks[i];
+        }
+        for (int i = 0; i < members.length; i++) {
+            members[i].rate = point.getFetchRate() * asks[i] / total;
+        }
+    }
+
+    /**
+     * Counts the oranges a report says are done with: completed, dropped or abandoned.
+     */
+    private static long done(long[] counts) {
+        return counts[PROCESSED] + counts[DROPPED] + counts[ABANDONED];
+    }
+
+    private long total(int count) {
+        long sum = 0;
+        for (Member m : members) {
+            sum += m.counts[count];
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the time from telling the processes to start until they had all stopped.
+     *
+     * @return Seconds, 0 before {@link #run()} has finished.
+     */
+    public double getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * Gets the number of oranges fetched, over every process.
+     *
+     * @return Number of oranges, as of the last report.
+     */
+    public long getProvidedOranges() {
+        return total(FETCHED);
+    }
+
+    /**
+     * Gets the number of oranges fully processed, over every process.
+     *
+     * @return Number of oranges, as of the last report.
+     */
+    public long getProcessedOranges() {
+        return total(PROCESSED);
+    }
+
+    /**
+     * Gets the number of bottles, over every process.
+     *
+     * @return Number of bottles, as of the last report.
+     */
+    public long getBottles() {
+        return total(BOTTLES);
+    }
+
+    /**
+     * Gets the number of wasted oranges, see {@link Plant#getWaste()}, over every process.
+     *
+     * @return Number of oranges, as of the last report.
+     */
+    public long getWaste() {
+        return total(WASTED);
+    }
+
+    /**
+     * Gets the number of oranges dropped by full conveyors, over every process.
+     *
+     * @return Number of oranges, as of the last report.
+     */
+    public long getDroppedOranges() {
+        return total(DROPPED);
+    }
+
+    /**
+     * Gets the number of oranges abandoned when draining, over every process.
+     *
+     * @return Number of oranges, as of the last report.
+     */
+    public long getAbandonedOranges() {
+        return total(ABANDONED);
+    }
+
+    /**
+     * Describes each process: its final share of the fetch rate and what it produced.
+     *
+     * @return One line per process.
+     */
+    public String describeMembers() {
+        StringBuilder sb = new StringBuilder();
+        for (Member m : members) {
+            if (m == null) {
+                continue;
+            }
+            sb.append(String.format(Locale.ROOT, "Process %d: %s, %d fetched, %d processed, %d bottles, %d wasted%n",
+                    m.number, point.getFetchRate() > 0 ? String.format(Locale.ROOT, "%.1f oranges/sec", m.rate)
+                            : "unpaced",
+                    m.counts[FETCHED], m.counts[PROCESSED], m.counts[BOTTLES], m.counts[WASTED]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * <h1>Member</h1>
+     * The coordinator's side of the connection to one process.
+     */
+    private static final class Member {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+        private int number;
+        /**
+         * Fetch rate this member was given last.
+         */
+        private double rate;
+        /**
+         * Counts of the last report and of the one before, indexed like {@link #FETCHED}.
+         */
+        private final long[] counts = new long[6];
+        private final long[] previous = new long[6];
+
+        private Member(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+        }
+
+        private void send(String command) {
+            out.println(command);
+            out.flush();
+        }
+    }
+}
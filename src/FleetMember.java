@@ -0,0 +1,151 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>FleetMember</h1>
+ * One process of a multi-process fleet: runs a {@link Fleet} of plants in its own JVM, as told by a
+ * {@link FleetCoordinator} over a local socket. The coordinator starts these processes itself; there is no need to
+ * start one by hand.
+ * <p>
+ * Arguments are {@code coordinator=<port>} and {@code member=<number>}, followed by the {@link RunSettings} of the
+ * run. All plants of the process share one {@link FetchPacer}, whose rate the coordinator sets.
+ * </p>
+ *
+ * <h2>Protocol:</h2>
+ * <p>
+ * One line of text per message. The member says {@code hello <number>} once connected, then answers every command
+ * of the coordinator with {@code report <fetched> <processed> <bottles> <wasted> <dropped> <abandoned>}, the totals
+ * over its plants so far:
+ * </p>
+ * <ul>
+ *     <li>{@code go <rate>}: start the plants, fetching {@code rate} oranges per second between them (0 for as fast
+ *     as possible).</li>
+ *     <li>{@code rate <rate>}: change the fetch rate.</li>
+ *     <li>{@code stop}: stop the plants and let them drain; the report comes once they have, and the process
+ *     exits.</li>
+ * </ul>
+ * <p>
+ * A member whose coordinator goes away stops its plants and exits.
+ * </p>
+ */
+public final class FleetMember {
+    private FleetMember() {
+    }
+
+    /**
+     * Runs a fleet member.
+     *
+     * @param args {@code coordinator=<port> member=<number>}, then the run's settings.
+     */
+    public static void main(String[] args) {
+        int port = -1;
+        int member = -1;
+        List<String> settings = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("coordinator=")) {
+                port = Integer.parseInt(arg.substring("coordinator=".length()));
+            } else if (arg.startsWith("member=")) {
+                member = Integer.parseInt(arg.substring("member=".length()));
+            } else {
+                settings.add(arg);
+            }
+        }
+        if (port < 0 || member < 0) {
+            System.err.println("Usage: java FleetMember coordinator=<port> member=<number> [settings...]");
+            System.exit(2);
+        }
+
+        try {
+            run(port, member, RunSettings.parse(settings.toArray(new String[0])).points().get(0));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Fleet member " + member + " failed: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.err.println("Fleet member " + member + " interrupted.");
+            System.exit(1);
+        } finally {
+            ConsoleLog.flush();
+        }
+    }
+
+    /**
+     * Connects to the coordinator and runs its commands until told to stop.
+     */
+    private static void run(int port, int member, RunSettings.Point point) throws IOException, InterruptedException {
+        Orange.setCostModel(point.getCostModel());
+        FetchPacer pacer = new FetchPacer(0);
+        Fleet fleet = new Fleet(point.getPlants(), i -> point.newConfig().setFetchPacer(pacer));
+        boolean started = false;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            PrintWriter out = new PrintWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+            out.println("hello " + member);
+            out.flush();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] command = line.trim().split(" ");
+                switch (command[0]) {
+                    case "go":
+                        pacer.setRate(Double.parseDouble(command[1]));
+                        fleet.start();
+                        started = true;
+                        break;
+                    case "rate":
+                        pacer.setRate(Double.parseDouble(command[1]));
+                        break;
+                    case "stop":
+                        fleet.stop();
+                        started = false;
+                        break;
+                    default:
+                        throw new IOException("Unknown command from coordinator: " + line);
+                }
+                out.println(report(fleet.getPlants()));
+                out.flush();
+                if (command[0].equals("stop")) {
+                    return;
+                }
+            }
+            ConsoleLog.warn("Fleet member " + member + " lost its coordinator, stopping.");
+        } finally {
+            if (started) {
+                fleet.stop();
+            }
+        }
+    }
+
+    /**
+     * Adds up the counts of the plants into a {@code report} line.
+     */
+    private static String report(Plant[] plants) {
+        long fetched = 0;
+        long processed = 0;
+        long bottles = 0;
+        long wasted = 0;
+        long dropped = 0;
+        long abandoned = 0;
+        for (Plant p : plants) {
+            if (p == null) {
+                continue;
+            }
+            fetched += p.getProvidedOranges();
+            processed += p.getProcessedOranges();
+            bottles += p.getBottles();
+            wasted += p.getWaste();
+            dropped += p.getDroppedOranges();
+            abandoned += p.getAbandonedOranges();
+        }
+        return "report " + fetched + " " + processed + " " + bottles + " " + wasted + " " + dropped + " " + abandoned;
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * <h1>IntConveyor</h1>
+ * A bounded conveyor belt of {@code int} orange IDs, used by {@link CompactLine}.
+ * <p>
+ * Works like {@link Conveyor} with the {@link Backpressure#BLOCK} policy: a worker taking from an empty belt parks
+ * until an ID arrives, a worker putting on a full belt parks until there is room, and the belt closes once its last
+ * producer has signed off. The IDs live in a plain {@code int[]} ring, so nothing is allocated per hand-off.
+ * </p>
+ *
+ * <p>
+ * It parks on its own monitor rather than on a {@link java.util.concurrent.locks.ReentrantLock}: a contended lock or a
+ * condition wait queues a node object on the heap, a monitor wait does not.
+ * </p>
+ */
+public class IntConveyor {
+    /**
+     * Returned by {@link #take()} once the conveyor is closed and empty.
+     */
+    public static final int CLOSED = -1;
+    /**
+     * Name of the conveyor, e.g. "Peeling".
+     */
+    private final String name;
+    /**
+     * Orange IDs on the belt, from {@link #head} (next to take) for {@link #count} entries, wrapping around.
+     */
+    private final int[] ring;
+    private int head;
+    private int count;
+    /**
+     * Number of workers parked waiting for an ID, and for room on the belt.
+     */
+    private int waiting;
+    private int waitingForSpace;
+    private boolean closed;
+    /**
+     * Number of producers still putting IDs on this conveyor, see {@link #producerDone()}.
+     */
+    private int producers;
+
+    /**
+     * Constructs an empty conveyor.
+     *
+     * @param name     Name of the conveyor.
+     * @param capacity Maximum number of IDs on the belt at once.
+     * @throws IllegalArgumentException if {@code capacity} is less than one.
+     */
+    public IntConveyor(String name, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.name = name;
+        this.ring = new int[capacity];
+    }
+
+    /**
+     * Puts an ID on the belt, waiting for room if it is full.
+     *
+     * @param id Orange ID, zero or more.
+     * @return {@code true} if the ID was put on the belt, {@code false} if the conveyor was closed.
+     * @throws InterruptedException if interrupted while waiting for room.
+     */
+    public synchronized boolean put(int id) throws InterruptedException {
+        while (count == ring.length && !closed) {
+            waitingForSpace++;
+            try {
+                wait();
+            } finally {
+                waitingForSpace--;
+            }
+        }
+        if (closed) {
+            return false;
+        }
+        int tail = head + count;
+        ring[tail < ring.length ? tail : tail - ring.length] = id;
+        count++;
+        if (waiting > 0) {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next ID off the belt, waiting until one is available.
+     *
+     * @return Orange ID, or {@link #CLOSED} once the conveyor is closed and empty.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized int take() throws InterruptedException {
+        while (count == 0) {
+            if (closed) {
+                return CLOSED;
+            }
+            waiting++;
+            try {
+                wait();
+            } finally {
+                waiting--;
+            }
+        }
+        int id = ring[head];
+        head = head + 1 == ring.length ? 0 : head + 1;
+        count--;
+        if (waitingForSpace > 0) {
+            notifyAll();
+        }
+        return id;
+    }
+
+    /**
+     * Takes the next ID off the belt without waiting.
+     *
+     * @return Orange ID, or {@link #CLOSED} if the belt is empty.
+     */
+    public synchronized int poll() {
+        if (count == 0) {
+            return CLOSED;
+        }
+        int id = ring[head];
+        head = head + 1 == ring.length ? 0 : head + 1;
+        count--;
+        if (waitingForSpace > 0) {
+            notifyAll();
+        }
+        return id;
+    }
+
+    /**
+     * Closes the conveyor. IDs already on the belt can still be taken, and every waiting worker is woken.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Registers one more producer. The conveyor closes once every registered producer has called
+     * {@link #producerDone()}.
+     */
+    public synchronized void addProducer() {
+        producers++;
+    }
+
+    /**
+     * Signs off one producer, closing the conveyor if it was the last one.
+     */
+    public synchronized void producerDone() {
+        if (--producers <= 0) {
+            close();
+        }
+    }
+
+    /**
+     * Gets the number of IDs on the belt.
+     *
+     * @return Number of IDs.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Gets the name of this conveyor.
+     *
+     * @return Conveyor name.
+     */
+    public String getName() {
+        return name;
+    }
+}
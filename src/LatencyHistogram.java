@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <h1>LatencyHistogram</h1>
+ * Fixed-size, log-linear histogram of durations in nanoseconds.
+ * <p>
+ * Every power of two is split into {@code 16} equal buckets, so a recorded value is off by at most 1/16 (about 6%)
+ * from the bucket it lands in. All {@link #BUCKETS} counters are allocated up front, and {@link #record(long)} is a
+ * single atomic increment: safe to call from any number of workers and free of allocation on the hot path.
+ * </p>
+ *
+ * <p>
+ * Percentiles are read from a {@link #snapshot()}, which can be subtracted from a later one to get the percentiles of
+ * just the time in between.
+ * </p>
+ */
+public class LatencyHistogram {
+    /**
+     * Each power of two is split into {@code 2^SUB_BITS} buckets.
+     */
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    /**
+     * Number of buckets needed to cover every non-negative {@code long}.
+     */
+    public static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) * SUB_COUNT;
+
+    /**
+     * Bucket counters.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos Duration in nanoseconds, negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+    }
+
+    /**
+     * Copies the current bucket counts.
+     *
+     * @return Bucket counts, {@link #BUCKETS} long.
+     */
+    public long[] snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Finds the bucket a value belongs to.
+     *
+     * @param value Value in nanoseconds.
+     * @return Bucket index.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) Math.max(0, value);
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Gets the largest value that falls into a bucket.
+     *
+     * @param bucket Bucket index.
+     * @return Upper bound of the bucket in nanoseconds.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long lower = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Counts the values in a snapshot.
+     *
+     * @param snapshot Bucket counts from {@link #snapshot()}.
+     * @return Number of recorded values.
+     */
+    public static long count(long[] snapshot) {
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        return total;
+    }
+
+    /**
+     * Reads a percentile from a snapshot.
+     *
+     * @param snapshot Bucket counts from {@link #snapshot()}.
+     * @param quantile Quantile between 0 and 1, e.g. 0.99 for p99.
+     * @return Upper bound of the bucket holding that percentile in nanoseconds, 0 if the snapshot is empty.
+     */
+    public static long valueAt(long[] snapshot, double quantile) {
+        long total = count(snapshot);
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(snapshot.length - 1);
+    }
+
+    /**
+     * Subtracts an earlier snapshot from a later one, leaving only what was recorded in between.
+     *
+     * @param later   Later snapshot.
+     * @param earlier Earlier snapshot of the same histogram.
+     * @return New snapshot holding the difference.
+     */
+    public static long[] since(long[] later, long[] earlier) {
+        long[] delta = new long[later.length];
+        for (int i = 0; i < later.length; i++) {
+            delta[i] = later[i] - earlier[i];
+        }
+        return delta;
+    }
+}
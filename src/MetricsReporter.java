@@ -0,0 +1,235 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * <h1>MetricsReporter</h1>
+ * Periodically writes per-stage and per-plant metrics of running {@link Plant}s to a file.
+ * <p>
+ * Every {@link #SAMPLE_INTERVAL} milliseconds the reporter samples the depth of each stage's input {@link Conveyor}.
+ * Every report interval it appends one snapshot covering the time since the previous one:
+ * </p>
+ * <ul>
+ *     <li>oranges finished per stage, and per second</li>
+ *     <li>oranges the stage finished that never reached the next stage so far, from {@link ProductionCounters}</li>
+ *     <li>queue depth: current, average and maximum of the samples</li>
+ *     <li>worker utilization: time spent processing divided by the time the stage's workers were available</li>
+ *     <li>service time and queue wait p50/p99/p999, read from the stage's {@link LatencyHistogram}s</li>
+ * </ul>
+ * <p>
+ * {@link Format#TEXT} writes a readable block per snapshot, {@link Format#JSON} writes one JSON object per plant per
+ * line, so the file can be followed while the plants run. The workers only ever touch pre-allocated counters; all the
+ * arithmetic and formatting happens on the reporter's thread.
+ * </p>
+ */
+public class MetricsReporter implements Runnable {
+    /**
+     * Output format of the metrics file.
+     */
+    public enum Format {
+        TEXT,
+        JSON
+    }
+
+    /**
+     * Time between queue depth samples in milliseconds.
+     */
+    private static final long SAMPLE_INTERVAL = 10;
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final Path file;
+    private final Format format;
+    private final long interval;
+    private final Plant[] plants;
+    private final Thread thread;
+    private volatile boolean running;
+
+    /**
+     * State of the previous snapshot and the depth samples since, indexed by plant then stage.
+     */
+    private final long[][][] lastServiceTimes;
+    private final long[][][] lastQueueWaits;
+    private final long[][] lastServiced;
+    private final long[][] lastBusy;
+    private final long[][] depthSum;
+    private final int[][] depthMax;
+    private int samples;
+    private final long begin = System.nanoTime();
+    private long lastReport = begin;
+
+    /**
+     * Constructs a {@code MetricsReporter}. Call {@link #start()} to begin reporting.
+     *
+     * @param file     File to write, replaced if it exists.
+     * @param format   Output format.
+     * @param interval Time between snapshots in milliseconds.
+     * @param plants   Plants to report on.
+     */
+    public MetricsReporter(Path file, Format format, long interval, Plant... plants) {
+        this.file = file;
+        this.format = format;
+        this.interval = interval;
+        this.plants = plants;
+        int n = plants.length;
+        lastServiceTimes = new long[n][PlantConfig.NUM_STAGES][];
+        lastQueueWaits = new long[n][PlantConfig.NUM_STAGES][];
+        lastServiced = new long[n][PlantConfig.NUM_STAGES];
+        lastBusy = new long[n][PlantConfig.NUM_STAGES];
+        depthSum = new long[n][PlantConfig.NUM_STAGES];
+        depthMax = new int[n][PlantConfig.NUM_STAGES];
+        for (int p = 0; p < n; p++) {
+            for (int s = 0; s < PlantConfig.NUM_STAGES; s++) {
+                lastServiceTimes[p][s] = new long[LatencyHistogram.BUCKETS];
+                lastQueueWaits[p][s] = new long[LatencyHistogram.BUCKETS];
+            }
+        }
+        thread = new Thread(this, "Metrics reporter");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the reporter's thread.
+     */
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the reporter after it has written one last snapshot.
+     */
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            System.err.println(thread.getName() + " stop malfunction");
+        }
+    }
+
+    @Override
+    public void run() {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            while (running) {
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                sampleDepths();
+                if (System.nanoTime() - lastReport >= interval * 1_000_000L) {
+                    report(out);
+                }
+            }
+            report(out);
+        } catch (IOException e) {
+            System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Samples the input queue depth of every stage.
+     */
+    private void sampleDepths() {
+        for (int p = 0; p < plants.length; p++) {
+            Stage[] stages = plants[p].getStages();
+            for (int s = 0; s < stages.length; s++) {
+                int depth = depth(stages[s]);
+                depthSum[p][s] += depth;
+                depthMax[p][s] = Math.max(depthMax[p][s], depth);
+            }
+        }
+        samples++;
+    }
+
+    /**
+     * Writes one snapshot and resets the per-interval state.
+     */
+    private void report(BufferedWriter out) throws IOException {
+        long now = System.nanoTime();
+        double seconds = (now - lastReport) / 1e9;
+        double uptime = (now - begin) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        if (format == Format.TEXT) {
+            sb.append(String.format(Locale.ROOT, "--- %.1f s ---%n", uptime));
+        }
+        for (int p = 0; p < plants.length; p++) {
+            Plant plant = plants[p];
+            Stage[] stages = plant.getStages();
+            if (format == Format.JSON) {
+                sb.append(String.format(Locale.ROOT, "{\"time\":%.3f,\"plant\":\"%s\",\"processed\":%d,\"stages\":[",
+                        uptime, plant.getName(), plant.getProcessedOranges()));
+            } else {
+                sb.append(String.format("%s: %d processed%n", plant.getName(), plant.getProcessedOranges()));
+            }
+            for (int s = 0; s < stages.length; s++) {
+                Stage stage = stages[s];
+                if (stage == null) {
+                    continue;
+                }
+                long serviced = stage.getServiced();
+                long busy = stage.getBusyNanos();
+                long done = serviced - lastServiced[p][s];
+                int workers = stage.getWorkerCount();
+                double utilization = (busy - lastBusy[p][s]) / (seconds * 1e9 * Math.max(1, workers));
+                long[] serviceNow = stage.getServiceTimes().snapshot();
+                long[] waitNow = stage.getQueueWaits().snapshot();
+                long[] service = LatencyHistogram.since(serviceNow, lastServiceTimes[p][s]);
+                long[] wait = LatencyHistogram.since(waitNow, lastQueueWaits[p][s]);
+                double depthAvg = samples == 0 ? 0 : (double) depthSum[p][s] / samples;
+                long wasted = plant.getCounters().getWasted(s);
+
+                if (format == Format.JSON) {
+                    sb.append(s == 0 ? "" : ",");
+                    sb.append(String.format(Locale.ROOT,
+                            "{\"stage\":\"%s\",\"workers\":%d,\"done\":%d,\"perSecond\":%.2f,\"wasted\":%d,"
+                                    + "\"depth\":%d,\"depthAvg\":%.2f,\"depthMax\":%d,\"utilization\":%.3f,"
+                                    + "\"serviceMs\":%s,\"waitMs\":%s}",
+                            stage.getName(), workers, done, done / seconds, wasted, depth(stage), depthAvg,
+                            depthMax[p][s], utilization, percentilesJson(service), percentilesJson(wait)));
+                } else {
+                    sb.append(String.format(Locale.ROOT,
+                            "  %-9s workers %2d  done %6d  %8.1f/s  wasted %4d  depth %4d (avg %.1f, max %d)"
+                                    + "  util %3.0f%%  service %s  wait %s%n",
+                            stage.getName(), workers, done, done / seconds, wasted, depth(stage), depthAvg,
+                            depthMax[p][s], 100 * utilization, percentilesText(service), percentilesText(wait)));
+                }
+
+                lastServiced[p][s] = serviced;
+                lastBusy[p][s] = busy;
+                lastServiceTimes[p][s] = serviceNow;
+                lastQueueWaits[p][s] = waitNow;
+                depthSum[p][s] = 0;
+                depthMax[p][s] = 0;
+            }
+            if (format == Format.JSON) {
+                sb.append("]}").append(System.lineSeparator());
+            }
+        }
+        out.write(sb.toString());
+        out.flush();
+        samples = 0;
+        lastReport = now;
+    }
+
+    private static int depth(Stage stage) {
+        return stage == null || stage.getInput() == null ? 0 : stage.getInput().size();
+    }
+
+    private static String percentilesJson(long[] snapshot) {
+        return String.format(Locale.ROOT, "{\"p50\":%.3f,\"p99\":%.3f,\"p999\":%.3f}",
+                millis(snapshot, QUANTILES[0]), millis(snapshot, QUANTILES[1]), millis(snapshot, QUANTILES[2]));
+    }
+
+    private static String percentilesText(long[] snapshot) {
+        return String.format(Locale.ROOT, "p50/p99/p999 %.1f/%.1f/%.1f ms",
+                millis(snapshot, QUANTILES[0]), millis(snapshot, QUANTILES[1]), millis(snapshot, QUANTILES[2]));
+    }
+
+    private static double millis(long[] snapshot, double quantile) {
+        return LatencyHistogram.valueAt(snapshot, quantile) / 1e6;
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * <h1>Orange</h1>
  * Represents an orange moving through the juice bottling plant.
@@ -12,24 +14,68 @@
  * {@link State#Bottled}, {@link State#Processed}. Each state defines processing time.
  * </p>
  *
- * <br> </br>
- * <p>The code here is unchanged. Comments were added after to help me figure out what is going on.</p>
+ * <h2>Work and tracking:</h2>
+ * <p>
+ * The work done for each state is set by a {@link CostModel} shared by all oranges, see
+ * {@link #setCostModel(CostModel)}. Each orange also carries an ID for the {@link ProductionLog} and the time it was
+ * last put on a {@link Conveyor}. {@link #Orange(State)} creates an orange in a given state without doing any work,
+ * for a plant resuming from a {@link Checkpoint}.
+ * </p>
  *
  * @Author Nate Williams
  * @Author John Botonakis
  */
 public class Orange {
+    //Hands out orange IDs, unique within the JVM.
+    private static final AtomicLong nextId = new AtomicLong();
+    //What doWork() does for each state. Sleeping for the state's time is the original behaviour.
+    private static volatile CostModel costModel = StandardCost.SLEEP;
     //Initalizes a state the orange can be in.
     private State state;
+    //When the orange was last put on a Conveyor, used to measure how long it waited there.
+    private long enqueuedAt;
+    //Identifies the orange in a ProductionLog.
+    private final long id;
 
     /**
      * Constructor. Initializes {@code Orange} in {@link State#Fetched} state and simulates initial work.
      */
     public Orange() {
+        id = nextId.getAndIncrement();
         state = State.Fetched;
         doWork();
     }
 
+    /**
+     * Restores an orange that already went through the stages before {@code state}, without redoing any of their
+     * work. Used when a plant resumes from a {@link Checkpoint}.
+     *
+     * @param state State the orange was saved in.
+     */
+    Orange(State state) {
+        id = nextId.getAndIncrement();
+        this.state = state;
+    }
+
+    /**
+     * Sets the {@link CostModel} used by every orange from now on, e.g. {@link StandardCost#NONE} to measure the
+     * pipeline without any simulated work.
+     *
+     * @param model Cost model to use.
+     */
+    public static void setCostModel(CostModel model) {
+        costModel = model;
+    }
+
+    /**
+     * Gets the {@link CostModel} oranges currently use.
+     *
+     * @return Active cost model.
+     */
+    public static CostModel getCostModel() {
+        return costModel;
+    }
+
     /**
      * Returns the current processing state of this {@code Orange}.
      *
@@ -39,6 +85,33 @@ public class Orange {
         return state;
     }
 
+    /**
+     * Returns this orange's ID, unique within the JVM.
+     *
+     * @return Orange ID.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Records when this orange was put on a {@link Conveyor}.
+     *
+     * @param nanos {@link System#nanoTime()} at the time it was put there.
+     */
+    void markEnqueued(long nanos) {
+        enqueuedAt = nanos;
+    }
+
+    /**
+     * Gets when this orange was last put on a {@link Conveyor}.
+     *
+     * @return {@link System#nanoTime()} at the time it was put there.
+     */
+    long getEnqueuedAt() {
+        return enqueuedAt;
+    }
+
     /**
      * Advances orange to the next processing stage. Simulates work and state transition.
      *
@@ -58,22 +131,21 @@ public class Orange {
      * doWork
      * Simulates the work performed on the orange during each processing state.
      * <p>
-     * This private method introduces a delay to represent the time taken to complete
-     * a specific processing stage (e.g., fetching, peeling, squeezing). The duration of the
-     * delay is determined by the {@link State#timeToComplete} value associated with the
-     * current {@link State} of the orange.
+     * This private method hands the current {@link State} and its {@link State#timeToComplete} value to the active
+     * {@link CostModel}, which represents the time taken to complete a specific processing stage (e.g., fetching,
+     * peeling, squeezing). By default that is a sleep of {@link State#timeToComplete} milliseconds.
      * </p>
      * <p>
-     * If the thread sleep is interrupted, an error message is printed to the standard error stream,
+     * If the work is interrupted, a warning is logged through {@link ConsoleLog},
      * indicating potential issues with orange processing.
      * </p>
      */
     private void doWork() {
-        // Sleep for the amount of time necessary to do the work
+        // Do the amount of work necessary for this state
         try {
-            Thread.sleep(state.timeToComplete);
+            costModel.work(state, state.timeToComplete);
         } catch (InterruptedException e) {
-            System.err.println("Incomplete orange processing, juice may be bad");
+            ConsoleLog.warn("Incomplete orange processing, juice may be bad");
         }
     }
 
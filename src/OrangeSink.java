@@ -0,0 +1,39 @@
+/**
+ * <h1>OrangeSink</h1>
+ * Where a {@link Stage} sends the oranges it has finished: the next stage's {@link Conveyor}, or for the bottler the
+ * plant's {@link BottleAccumulator}.
+ * <p>
+ * Every worker of the stage registers with {@link #addProducer()} before it starts and calls {@link #producerDone()}
+ * when it stops, so the sink knows when its last producer is gone.
+ * </p>
+ */
+public interface OrangeSink {
+    /**
+     * Hands over one orange.
+     *
+     * @param orange Orange to hand over.
+     * @return {@code true} if the orange was accepted.
+     * @throws InterruptedException if interrupted while waiting for room.
+     */
+    boolean put(Orange orange) throws InterruptedException;
+
+    /**
+     * Hands over a batch of oranges.
+     *
+     * @param batch Oranges to hand over.
+     * @param n     Number of oranges in {@code batch} to hand over.
+     * @return Number of oranges accepted.
+     * @throws InterruptedException if interrupted while waiting for room.
+     */
+    int putAll(Orange[] batch, int n) throws InterruptedException;
+
+    /**
+     * Registers one more producer.
+     */
+    void addProducer();
+
+    /**
+     * Signs off a registered producer once it has handed over its last orange.
+     */
+    void producerDone();
+}
@@ -1,6 +1,10 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <h1>Plant</h1>
@@ -17,7 +21,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * </ul>
  *
  * <p>
- * Manages {@link Worker} threads and the flow of {@link Orange} objects between them using concurrent queues.
+ * Manages {@link Worker} threads and the flow of {@link Orange} objects between them using {@link Conveyor} belts.
  * Sets up the factory environment for parallel orange processing.
  * </p>
  *
@@ -26,108 +30,341 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  */
 public class Plant implements Runnable {
     /**
-     * Processing time for each plant in milliseconds.
+     * Default processing time for each plant in milliseconds, see {@link RunSettings}.
      */
     public static final long PROCESSING_TIME = 5 * 1000;
     /**
-     * Oranges needed per bottle.
+     * Default number of plant instances, see {@link RunSettings}.
      */
-    private final static int ORANGES_PER_BOTTLE = 4;
-    /**
-     * Number of plant instances.
-     */
-    private static final int NUM_PLANTS = 2;
+    static final int NUM_PLANTS = 2;
     /**
      * Number of worker threads per plant.
      */
     private final static int NUM_WORKERS = 4;
+    /**
+     * How long workers get to finish the orange in hand once the drain deadline has passed, in milliseconds.
+     */
+    private static final long STRAGGLER_MILLIS = 1000;
     /**
      * Flag to ensure shutdown messages are printed only once.
      */
     private static boolean shutdownPrinted = false;
     /**
-     * Plant's thread.
+     * Name of the plant's thread.
+     */
+    private final String name;
+    /**
+     * Plant instance identifier, recorded in the {@link ProductionLog}.
+     */
+    private final int number;
+    /**
+     * Released when the plant's run loop has finished, used instead of joining a thread because the
+     * plant may run on any {@link java.util.concurrent.Executor}.
+     */
+    private final CountDownLatch finished = new CountDownLatch(1);
+    /**
+     * Released once every worker of the plant has been started, see {@link #awaitStarted(long)}.
+     */
+    private final CountDownLatch started = new CountDownLatch(1);
+    /**
+     * Settings for this plant, including how many workers each stage gets.
      */
-    private final Thread thread;
+    private final PlantConfig config;
     /**
-     * Array of worker threads.
+     * Stages of the production line, each with its own pool of workers.
      */
-    private final Worker[] workers = new Worker[NUM_WORKERS];
+    private final Stage[] stages = new Stage[PlantConfig.NUM_STAGES];
     /**
-     * List of queues (not directly used, queues are managed as individual ConcurrentLinkedQueues).
+     * List of queues (not directly used, queues are managed as individual Conveyors).
      */ // Corrected Javadoc
     private final List<Orange> queues = new ArrayList<Orange>(NUM_WORKERS); // Corrected Javadoc
     /**
-     * Count of oranges fetched by this plant.
+     * Conveyors between the stages. Workers park on an empty conveyor and are woken when an orange arrives.
+     * The stage conveyors are bounded by {@link PlantConfig#getQueueCapacity()}.
      */
-    public int orangesProvided;
+    public Conveyor peelingQueue;
+    public Conveyor squeezingQueue;
+    public Conveyor bottlingQueue;
     /**
-     * Instantiates a Concurrent Linked Queue which is a FIFO node based queue that ""should"" be thread safe
+     * Counts the oranges coming off the bottler into bottles as they arrive, without keeping them.
      */
-    public ConcurrentLinkedQueue<Orange> peelingQueue = new ConcurrentLinkedQueue<Orange>();
-    public ConcurrentLinkedQueue<Orange> squeezingQueue = new ConcurrentLinkedQueue<Orange>();
-    public ConcurrentLinkedQueue<Orange> bottlingQueue = new ConcurrentLinkedQueue<Orange>();
-    public ConcurrentLinkedQueue<Orange> processedOranges = new ConcurrentLinkedQueue<Orange>();
+    public final BottleAccumulator processedOranges;
     /**
-     * Count of oranges fully processed by this plant.
+     * What each stage has finished and wasted, readable while the plant runs.
      */
-    private int orangesProcessed;
+    private final ProductionCounters counters;
     /**
-     * Volatile boolean indicating if the plant is working/running.
-     * Volatile ensures that it is updated and seen across all threads
+     * Decides when the fetchers may start new oranges, {@code null} for {@link Scheduling#FIFO}.
      */
-    private volatile boolean timeToWork;
+    private StageScheduler scheduler;
     /**
-     * Instantiates 4 new workers. Hold onto them until actual worker creation
+     * Released by {@link #stopPlant()}, or when the plant reaches {@link PlantConfig#getTargetOranges()}.
+     * The plant's thread waits on it without using any CPU.
      */
-    private Worker fetcher;
-    private Worker peeler;
-    private Worker squeezer;
-    private Worker bottler;
-
+    private final CountDownLatch timeToWork = new CountDownLatch(1);
+    /**
+     * Moves workers toward the bottleneck stage, {@code null} unless {@link PlantConfig#isBalanceWorkers()} is set.
+     */
+    private StageBalancer balancer;
+    /**
+     * Sets the fetch rate from what the plant can bottle, {@code null} unless {@link PlantConfig#isControlFetchRate()}
+     * is set.
+     */
+    private FetchController fetchController;
+    /**
+     * Runs the stages instead of {@link #stages} when {@link PlantConfig#getEngine()} is not
+     * {@link Engine#CONVEYORS}, {@code null} otherwise.
+     */
+    private ProductionLine line;
+    /**
+     * This plant's member number in {@link PlantConfig#getStealGroup()}, -1 if it is on its own.
+     */
+    private final int stealMember;
+    /**
+     * Oranges fetched, dropped and abandoned by earlier runs of this plant, restored from
+     * {@link PlantConfig#getCheckpoint()}. All 0 for a fresh plant.
+     */
+    private long restoredProvided;
+    private long restoredDropped;
+    private long restoredAbandoned;
 
     /**
-     * Constructs a {@code Plant} instance. Initializes orange counts and creates the plant's thread.
+     * Constructs a {@code Plant} instance. Initializes orange counts and names the plant's thread.
      *
      * @param threadNum Plant instance identifier.
      */
     Plant(int threadNum) {
-        orangesProvided = 0;
-        orangesProcessed = 0;
-        thread = new Thread(this, Plant.class.getSimpleName() + " " + threadNum);
+        this(threadNum, new PlantConfig());
+    }
+
+    /**
+     * Constructs a {@code Plant} instance with the given settings.
+     *
+     * @param threadNum Plant instance identifier.
+     * @param config    Worker counts and balancing settings for this plant.
+     */
+    Plant(int threadNum, PlantConfig config) {
+        if (config.isControlFetchRate() && config.getFetchPacer() != null) {
+            throw new IllegalArgumentException("A plant can't have both a fetch pacer and a fetch rate controller");
+        }
+        this.config = config;
+        processedOranges = new BottleAccumulator(config.getOrangesPerBottle());
+        peelingQueue = new Conveyor("Peeling", config.getQueueCapacity(), config.getBackpressure());
+        squeezingQueue = new Conveyor("Squeezing", config.getQueueCapacity(), config.getBackpressure());
+        bottlingQueue = new Conveyor("Bottling", config.getQueueCapacity(), config.getBackpressure());
+        counters = new ProductionCounters(new Conveyor[]{peelingQueue, squeezingQueue, bottlingQueue, null});
+        // Join in the constructor, so every plant of a group is a possible victim before the first one starts
+        StealGroup group = config.getEngine() == Engine.CONVEYORS ? config.getStealGroup() : null;
+        stealMember = group == null ? -1
+                : group.join(new Conveyor[]{null, peelingQueue, squeezingQueue, bottlingQueue}, counters);
+        number = threadNum;
+        name = Plant.class.getSimpleName() + " " + threadNum;
+        Checkpoint checkpoint = config.getEngine() == Engine.CONVEYORS ? config.getCheckpoint() : null;
+        if (checkpoint != null) {
+            Checkpoint.Snapshot saved = checkpoint.getSaved(number);
+            if (saved != null) {
+                restore(saved);
+            }
+            checkpoint.register(this);
+        }
+    }
+
+    /**
+     * Puts the plant back in a saved state before it starts: the counts carry on from where they were, and every
+     * conveyor gets back as many oranges as were waiting on it, already in the state its stage expects.
+     *
+     * @param saved State saved by an earlier run of this plant.
+     */
+    private void restore(Checkpoint.Snapshot saved) {
+        restoredProvided = saved.provided;
+        restoredDropped = saved.dropped;
+        restoredAbandoned = saved.abandoned;
+        processedOranges.restore(saved.processed);
+        Conveyor[] conveyors = {peelingQueue, squeezingQueue, bottlingQueue};
+        Orange.State[] states = {Orange.State.Peeled, Orange.State.Squeezed, Orange.State.Bottled};
+        for (int i = 0; i < conveyors.length; i++) {
+            for (long n = 0; n < saved.waiting[i]; n++) {
+                conveyors[i].preload(new Orange(states[i]));
+            }
+        }
+        ConsoleLog.info(name + " resuming from checkpoint: " + saved.provided + " fetched, " + saved.processed
+                + " completed, " + peelingQueue.size() + "/" + squeezingQueue.size() + "/" + bottlingQueue.size()
+                + " waiting to be peeled/squeezed/bottled");
+    }
+
+    /**
+     * Reads the plant's state for a {@link Checkpoint}, while it runs. Counts are read downstream first, so an orange
+     * moving on meanwhile may be missed but is never counted twice.
+     *
+     * @return Current state of the plant.
+     */
+    Checkpoint.Snapshot snapshot() {
+        long processed = processedOranges.getOranges();
+        long dropped = getDroppedOranges();
+        long abandoned = getAbandonedOranges();
+        long[] waiting = new long[3];
+        waiting[2] = bottlingQueue.size();
+        waiting[1] = squeezingQueue.size();
+        waiting[0] = peelingQueue.size();
+        // Oranges stolen to and from other plants are folded into what the plant fetched, so its waste adds up again
+        // when it resumes
+        long provided = restoredProvided + counters.getFetched() + counters.getStolenIn() - counters.getStolenOut();
+        return new Checkpoint.Snapshot(provided, processed, dropped, abandoned, waiting);
     }
 
     /**
-     * Creates and starts multiple {@code Plant} instances, lets them process for a set time,
+     * Gets this plant's instance identifier.
+     *
+     * @return Plant number.
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * Creates and starts multiple {@code Plant} instances through a {@link Fleet}, lets them process for a set time,
      * then stops and summarizes the production results.
      *
-     * @param args Command line arguments (not used).
+     * <p>
+     * Setting the {@code plant.metrics} system property to a file name writes per-stage metrics to that file every
+     * {@code plant.metrics.interval} milliseconds (1000 by default) while the plants run, as JSON lines if the name
+     * ends in {@code .json} or {@code .jsonl} and as text otherwise.
+     * </p>
+     *
+     * <p>
+     * Setting the {@code plant.log} system property to a file name records every orange each stage processes in a
+     * {@link ProductionLog} there, with room for {@code plant.log.records} records (10 million by default); the file
+     * grows as records are written. Read it back with {@link LogReplay} after the run.
+     * </p>
+     *
+     * <p>
+     * Setting the {@code plant.checkpoint} system property to a file name saves every plant's state there every
+     * {@code plant.checkpoint.interval} milliseconds (1000 by default), see {@link Checkpoint}. If the file already
+     * exists the plants resume from it, so a run killed halfway carries on where it was last saved; delete the file to
+     * start from scratch.
+     * </p>
+     *
+     * <p>
+     * The plants and their workers print through {@link ConsoleLog}; setting the {@code plant.console} system property
+     * to {@code warn} keeps the per-worker messages of a large run off the console.
+     * </p>
+     *
+     * <p>
+     * The number of plants, their workers, run time, oranges per bottle and stage times come from
+     * {@link RunSettings}: {@code key=value} arguments, or a properties file given as {@code config=file}. If a setting
+     * lists several values, e.g. {@code plants=1,2,4}, every combination is run as a {@link Sweep} instead and the
+     * results are written to a CSV file. With {@code processes=N} the plants run in N JVMs of {@code plants} plants
+     * each instead, under a {@link FleetCoordinator} that splits {@code fetchRate} between them.
+     * </p>
+     *
+     * @param args Settings, see {@link RunSettings}.
      */
     public static void main(String[] args) {
-        // Startup the plants
-        Plant[] plants = new Plant[NUM_PLANTS];
-        for (int i = 0; i < NUM_PLANTS; i++) {
-            plants[i] = new Plant(i);
-            plants[i].startPlant();
+        RunSettings settings;
+        try {
+            settings = RunSettings.parse(args);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Bad settings: " + e.getMessage());
+            System.err.println("Usage: java Plant [config=plant.properties] [plants=2] [workers.peeler=2] "
+                    + "[time.peeled=38] [runTime=5000] [orangesPerBottle=4] ... (a,b,c to sweep)");
+            System.exit(2);
+            return;
         }
+        if (settings.isSweep()) {
+            try {
+                new Sweep(settings).run();
+            } catch (IOException e) {
+                System.err.println("Could not write " + settings.getCsv() + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                System.err.println("Sweep interrupted.");
+            }
+            return;
+        }
+        RunSettings.Point run = settings.points().get(0);
+        if (run.getProcesses() > 0) {
+            runProcesses(run);
+            return;
+        }
+        Orange.setCostModel(run.getCostModel());
 
-        // Give the plants time to do work
-        delay(PROCESSING_TIME, "Plant malfunction");
+        ProductionLog log = null;
+        String logFile = System.getProperty("plant.log");
+        if (logFile != null) {
+            try {
+                log = new ProductionLog(Paths.get(logFile), Long.getLong("plant.log.records", 10_000_000));
+            } catch (IOException e) {
+                System.err.println("Could not create production log " + logFile + ": " + e.getMessage());
+            }
+        }
 
-        // Stop the plant, and wait for it to shutdown
-        for (Plant p : plants) {
-            p.stopPlant();
+        Checkpoint checkpoint = null;
+        String checkpointFile = System.getProperty("plant.checkpoint");
+        if (checkpointFile != null) {
+            try {
+                checkpoint = new Checkpoint(Paths.get(checkpointFile), Long.getLong("plant.checkpoint.interval", 1000));
+            } catch (IOException e) {
+                System.err.println("Could not open checkpoint " + checkpointFile + ": " + e.getMessage());
+            }
+        }
+
+        // Startup the plants in parallel, each one stops itself after its run time (PROCESSING_TIME by default)
+        ProductionLog sharedLog = log;
+        Checkpoint sharedCheckpoint = checkpoint;
+        FetchPacer pacer = run.newPacer();
+        Fleet fleet = new Fleet(run.getPlants(), i -> run.newConfig().setRunTime(run.getRunTime())
+                .setProductionLog(sharedLog).setCheckpoint(sharedCheckpoint).setFetchPacer(pacer));
+        try {
+            fleet.start();
+        } catch (InterruptedException e) {
+            System.err.println("Plant startup interrupted.");
         }
+        Plant[] plants = fleet.getPlants();
+        ConsoleLog.info("Started " + run.getPlants() + " plants in " + fleet.getStartupNanos() / 1_000_000 + " ms");
+        if (checkpoint != null) {
+            checkpoint.start();
+        }
+
+        MetricsReporter metrics = null;
+        String metricsFile = System.getProperty("plant.metrics");
+        if (metricsFile != null) {
+            MetricsReporter.Format format = metricsFile.endsWith(".json") || metricsFile.endsWith(".jsonl")
+                    ? MetricsReporter.Format.JSON : MetricsReporter.Format.TEXT;
+            long interval = Long.getLong("plant.metrics.interval", 1000);
+            metrics = new MetricsReporter(Paths.get(metricsFile), format, interval, plants);
+            metrics.start();
+        }
+
+        // Wait for the plants to do their work and shut down
         for (Plant p : plants) {
             p.waitToStop();
         }
+        // Everything below prints directly, after the plants' own messages
+        ConsoleLog.flush();
+        if (metrics != null) {
+            metrics.stop();
+        }
+        if (checkpoint != null) {
+            checkpoint.stop();
+            System.out.println("Checkpoint: " + checkpoint.getWrites() + " plant states saved to " + checkpointFile);
+        }
+        if (log != null) {
+            try {
+                log.close();
+                System.out.println("Production log: " + log.getRecords() + " records written to " + log.getFile()
+                        + ", " + log.getDropped() + " dropped");
+            } catch (IOException e) {
+                System.err.println("Could not close production log " + logFile + ": " + e.getMessage());
+            }
+        }
 
         // Summarize the results
         int totalProvided = 0;
         int totalProcessed = 0;
         int totalBottles = 0;
         int totalWasted = 0;
+        long totalAbandoned = 0;
         for (Plant p : plants) {
+            totalAbandoned += p.getAbandonedOranges();
             totalProvided += p.getProvidedOranges();
             totalProcessed += p.getProcessedOranges();
             totalBottles += p.getBottles();
@@ -136,6 +373,10 @@ public class Plant implements Runnable {
         int actualProvided = totalProvided - totalWasted;  // Adjust for waste
         System.out.println("Total provided/processed = " + actualProvided + "/" + totalProcessed);
         System.out.println("Created " + totalBottles + ", wasted " + totalWasted + " oranges");
+        System.out.println("Abandoned " + totalAbandoned + " oranges that could not be drained in time");
+        if (fleet.getFirstBottleNanos() >= 0) {
+            System.out.println("First bottle after " + fleet.getFirstBottleNanos() / 1_000_000 + " ms");
+        }
 
         //[JB] I'm not sure how, but there is an issue in how the original summary is printed
         //For some reason, the totalProvided doesn't have the amount subtracted properly
@@ -146,101 +387,272 @@ public class Plant implements Runnable {
     }
 
     /**
-     * Delays the current thread for a specified time.
+     * Runs the plants of a run in several JVMs under a {@link FleetCoordinator} and prints the same summary as a run
+     * in this JVM, over all of them.
      *
-     * @param time   Delay duration in milliseconds.
-     * @param errMsg Error message to print if interrupted.
+     * @param run Settings, with {@code processes} set.
      */
-    private static void delay(long time, String errMsg) {
-        long sleepTime = Math.max(1, time);
+    private static void runProcesses(RunSettings.Point run) {
+        FleetCoordinator coordinator = new FleetCoordinator(run);
         try {
-            Thread.sleep(sleepTime);
+            coordinator.run();
+        } catch (IOException e) {
+            System.err.println("Fleet failed: " + e.getMessage());
+            return;
         } catch (InterruptedException e) {
-            System.err.println(errMsg);
+            System.err.println("Fleet interrupted.");
+            return;
         }
+        ConsoleLog.flush();
+        System.out.print(coordinator.describeMembers());
+        long processed = coordinator.getProcessedOranges();
+        System.out.println("Total provided/processed = " + (coordinator.getProvidedOranges() - coordinator.getWaste())
+                + "/" + processed);
+        System.out.println("Created " + coordinator.getBottles() + ", wasted " + coordinator.getWaste() + " oranges");
+        System.out.println("Abandoned " + coordinator.getAbandonedOranges()
+                + " oranges that could not be drained in time");
+        System.out.printf(Locale.ROOT, "%d processes: %.1f oranges/sec over %.1f s%n", run.getProcesses(),
+                processed / coordinator.getSeconds(), coordinator.getSeconds());
     }
 
     /**
-     * Retrieves an {@link Orange} from the input queue if available. Thread-safe.
+     * Retrieves an {@link Orange} from the input conveyor, waiting until one is available. Thread-safe.
+     * <p>
+     * Not synchronized on {@code Plant.class}: the {@link Conveyor} does its own per-belt coordination, so
+     * workers in different stages or plants never contend with each other here.
+     * </p>
      *
-     * @param inputList Queue to retrieve from.
-     * @return {@link Orange} if dequeued, {@code null} if queue is empty.
+     * @param inputList Conveyor to retrieve from.
+     * @return {@link Orange} if dequeued, {@code null} once the conveyor is closed and empty.
+     * @throws InterruptedException if the calling worker is interrupted while waiting.
      */
-    public synchronized static Orange getOranges(ConcurrentLinkedQueue<Orange> inputList) {
-        if (!inputList.isEmpty()) {
-            Orange o = inputList.poll();
-            return o;
-        } else {
-            return null;
-        }
+    public static Orange getOranges(Conveyor inputList) throws InterruptedException {
+        return inputList.take();
     }
 
     /**
-     * Adds an {@link Orange} to the export queue. Thread-safe.
+     * Retrieves up to {@code max} oranges from the input conveyor in one go, waiting until at least one is available.
+     * Thread-safe.
+     *
+     * @param inputList Conveyor to retrieve from.
+     * @param into      Array to fill.
+     * @param max       Maximum number of oranges to retrieve.
+     * @return Number of oranges retrieved, 0 once the conveyor is closed and empty.
+     * @throws InterruptedException if the calling worker is interrupted while waiting.
+     */
+    public static int getOranges(Conveyor inputList, Orange[] into, int max) throws InterruptedException {
+        return inputList.takeBatch(into, max);
+    }
+
+    /**
+     * Adds a batch of oranges to the export conveyor in one operation. Thread-safe.
+     *
+     * @param batch      Oranges to send.
+     * @param n          Number of oranges in {@code batch} to send.
+     * @param exportList Conveyor, or the plant's {@link BottleAccumulator}, to add to.
+     * @return Number of oranges accepted.
+     * @throws InterruptedException if the calling worker is interrupted while waiting for space.
+     */
+    public static int sendOranges(Orange[] batch, int n, OrangeSink exportList) throws InterruptedException {
+        return exportList.putAll(batch, n);
+    }
+
+    /**
+     * Adds an {@link Orange} to the export conveyor. Thread-safe and lock-free unless a worker has to be woken.
+     * If the conveyor is full, its {@link Backpressure} policy decides whether this waits or drops an orange.
      *
      * @param orange     {@link Orange} to send.
-     * @param exportList Queue to add to.
+     * @param exportList Conveyor, or the plant's {@link BottleAccumulator}, to add to.
+     * @return {@code true} if the orange was accepted.
+     * @throws InterruptedException if the calling worker is interrupted while waiting for space.
      */
-    public synchronized static void sendOranges(Orange orange, ConcurrentLinkedQueue<Orange> exportList) {
-        exportList.add(orange);
+    public static boolean sendOranges(Orange orange, OrangeSink exportList) throws InterruptedException {
+        return exportList.put(orange);
     }
 
     /**
-     * Starts the plant's thread, initiating orange processing.
+     * Starts the plant's thread, initiating orange processing. The thread comes from
+     * {@link PlantConfig#getExecutor()}, a dedicated platform thread unless configured otherwise.
      */
     public void startPlant() {
-        timeToWork = true;
-        thread.start();
+        config.getExecutor().execute(this);
     }
 
     /**
-     * Signals the plant to stop processing.
+     * Signals the plant to stop processing. Safe to call more than once, and before the run time is up.
      */
     public void stopPlant() {
-        timeToWork = false;
+        timeToWork.countDown();
     }
 
     /**
-     * Waits for plant thread to complete by calling join on any other threads
+     * Waits for plant thread to complete its run loop, including shutting down its workers.
      *
-     * @throws InterruptedException if plant thread join is interrupted.
+     * @throws InterruptedException if waiting for the plant is interrupted.
      */
     public void waitToStop() {
         try {
-            thread.join();
+            finished.await();
         } catch (InterruptedException e) {
-            System.err.println(thread.getName() + " stop malfunction");
+            ConsoleLog.warn(name + " stop malfunction");
         }
     }
 
     /**
-     * Plant's main run loop. Creates workers, then waits for {@link #timeToWork} to be set to false,
-     * after which it initiates worker shutdown.
+     * Waits until the plant has started every one of its workers, or has already stopped.
+     *
+     * @param timeoutNanos Longest time to wait in nanoseconds.
+     * @return {@code true} if the plant's workers were started in time.
+     * @throws InterruptedException if the waiting thread is interrupted.
+     */
+    public boolean awaitStarted(long timeoutNanos) throws InterruptedException {
+        return started.await(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Plant's main run loop. Creates workers, then waits on {@link #timeToWork} until the plant is stopped, its
+     * {@link PlantConfig#getRunTime() run time} is up, or it has bottled {@link PlantConfig#getTargetOranges()}
+     * oranges, after which it initiates worker shutdown. The plant's thread is parked the whole time it waits.
      */
     public void run() {
-        System.out.println(Thread.currentThread().getName() + " Processing oranges");
-        createWorkers();
-        while (timeToWork) {
-        }
-        //Stop the workers after this call
-        quittinTime();
-        //Print out a message that says done
-        System.out.println(" ");
+        String previousName = Thread.currentThread().getName();
+        Thread.currentThread().setName(name);
+        ConsoleLog.info(Thread.currentThread().getName() + " Processing oranges");
+        try {
+            createWorkers();
+            started.countDown();
+            // The run time counts from when the workers are let go, not from when they were created
+            awaitStartSignal();
+            if (scheduler != null && config.getRunTime() > 0) {
+                scheduler.setDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getRunTime()));
+            }
+            awaitQuittinTime();
+            //Stop the workers after this call
+            quittinTime();
+            //Print out a message that says done
+            ConsoleLog.info(" ");
+        } finally {
+            Thread.currentThread().setName(previousName);
+            started.countDown();
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Parks the plant's thread until its workers may start, see {@link PlantConfig#setStartSignal}.
+     */
+    private void awaitStartSignal() {
+        CountDownLatch go = config.getStartSignal();
+        if (go == null) {
+            return;
+        }
+        try {
+            go.await();
+        } catch (InterruptedException e) {
+            ConsoleLog.warn(name + " malfunction");
+        }
+    }
+
+    /**
+     * Parks the plant's thread until it is time to stop.
+     */
+    private void awaitQuittinTime() {
+        try {
+            if (config.getRunTime() > 0) {
+                timeToWork.await(config.getRunTime(), TimeUnit.MILLISECONDS);
+            } else {
+                timeToWork.await();
+            }
+        } catch (InterruptedException e) {
+            ConsoleLog.warn(name + " malfunction");
+        }
     }
 
     /**
      * Creates and initializes all worker threads for this plant instance.
-     * Workers are created for fetching, peeling, squeezing, and bottling.
+     * Each stage (fetching, peeling, squeezing, and bottling) gets the number of workers set in {@link #config},
+     * all sharing the stage's input conveyor. With an {@link Engine} other than {@link Engine#CONVEYORS} the
+     * workers belong to a {@link ProductionLine} instead, and the conveyors and {@link #stages} stay unused.
      */
     private void createWorkers() {
-        String[] workerNames = {"fetcher", "peeler", "squeezer", "bottler"};
-        fetcher = new Worker("fetcher", peelingQueue, null);
+        switch (config.getEngine()) {
+            case COMPACT:
+                line = new CompactLine(name, config);
+                break;
+            case RING:
+                line = new RingLine(name, config);
+                break;
+            default:
+                break;
+        }
+        if (line != null) {
+            if (config.getTargetOranges() > 0) {
+                line.setTarget(config.getTargetOranges(), this::stopPlant);
+            }
+            line.start();
+            return;
+        }
 
-        peeler = new Worker("peeler", squeezingQueue, peelingQueue);
+        if (config.getScheduling() != Scheduling.FIFO) {
+            // Enough oranges in the line to keep every later worker busy with one in hand and one waiting
+            int downstream = 0;
+            for (int i = PlantConfig.FETCHER + 1; i < stages.length; i++) {
+                downstream += config.getWorkers(i);
+            }
+            int perBottle = config.getOrangesPerBottle();
+            long limit = (2L * downstream + perBottle - 1) / perBottle * perBottle;
+            scheduler = new StageScheduler(name, config.getScheduling(), stages, counters, perBottle, limit);
+        }
+
+        if (config.isControlFetchRate()) {
+            fetchController = new FetchController(name, stages, config.getControlInterval());
+        }
 
-        squeezer = new Worker("squeezer", bottlingQueue, squeezingQueue);
+        String[] workerNames = {"fetcher", "peeler", "squeezer", "bottler"};
+        Conveyor[] conveyors = {null, peelingQueue, squeezingQueue, bottlingQueue};
+        Orange.State[] states = Orange.State.values();
+        CostModel cost = Orange.getCostModel();
+        for (int i = 0; i < stages.length; i++) {
+            int time = cost instanceof TimedCost ? ((TimedCost) cost).getTime(states[i]) : states[i].timeToComplete;
+            // The fetcher also waits on the orange's constructor, which takes as long as fetching itself
+            long expected = time * (i == PlantConfig.FETCHER ? 2 : 1);
+            OrangeSink output = i + 1 < conveyors.length ? conveyors[i + 1] : processedOranges;
+            stages[i] = new Stage(workerNames[i], i, conveyors[i], output, expected, config.getExecutor(),
+                    config.getBatchSize());
+            if (stealMember >= 0 && i != PlantConfig.FETCHER) {
+                stages[i].joinStealGroup(config.getStealGroup(), stealMember);
+            }
+            if (config.getProductionLog() != null) {
+                stages[i].logTo(config.getProductionLog(), number);
+            }
+            if (config.getStartSignal() != null) {
+                stages[i].holdUntil(config.getStartSignal());
+            }
+            stages[i].countIn(counters);
+            if (i == PlantConfig.FETCHER && config.getFetchPacer() != null) {
+                stages[i].paceWith(config.getFetchPacer());
+            }
+            if (i == PlantConfig.FETCHER && fetchController != null) {
+                stages[i].paceWith(fetchController.getPacer());
+            }
+            if (i == PlantConfig.FETCHER && scheduler != null) {
+                stages[i].scheduleWith(scheduler);
+            }
+            for (int w = 0; w < config.getWorkers(i); w++) {
+                stages[i].hireWorker();
+            }
+        }
+        if (config.getTargetOranges() > 0) {
+            stages[PlantConfig.BOTTLER].setTarget(config.getTargetOranges(), this::stopPlant);
+        }
 
-        bottler = new Worker("bottler", processedOranges, bottlingQueue);
+        if (config.isBalanceWorkers()) {
+            balancer = new StageBalancer(name, stages, config.getBalanceInterval());
+            balancer.start();
+        }
+        if (fetchController != null) {
+            fetchController.start();
+        }
     }
 
     /**
@@ -249,8 +661,10 @@ public class Plant implements Runnable {
      * @return Number of oranges provided.
      */
     public int getProvidedOranges() {
-        orangesProvided = fetcher.getOrangeCounter();
-        return orangesProvided;
+        if (line != null) {
+            return (int) line.getProvidedOranges();
+        }
+        return (int) (restoredProvided + counters.getFetched());
     }
 
     /**
@@ -259,77 +673,173 @@ public class Plant implements Runnable {
      * @return Number of oranges processed.
      */
     public int getProcessedOranges() {
-        orangesProcessed = processedOranges.size();
-        return orangesProcessed;
+        if (line != null) {
+            return (int) line.getProcessedOranges();
+        }
+        return (int) processedOranges.getOranges();
+    }
+
+    /**
+     * Gets the counts of what each stage has finished and wasted. Only counts for {@link Engine#CONVEYORS}; other
+     * engines keep their own counts, see {@link ProductionLine}.
+     *
+     * @return This plant's counters, live while it runs.
+     */
+    public ProductionCounters getCounters() {
+        return counters;
     }
 
     /**
-     * Calculates the number of bottles produced.
+     * Gets the number of bottles produced so far. Live while the plant runs.
      *
-     * @return Number of bottles, based on {@link #ORANGES_PER_BOTTLE}.
+     * @return Number of bottles, based on {@link PlantConfig#getOrangesPerBottle()}.
      */
     public int getBottles() {
-        return orangesProcessed / ORANGES_PER_BOTTLE;
+        return getProcessedOranges() / config.getOrangesPerBottle();
     }
 
     /**
-     * Calculates the number of oranges wasted (remainder and unprocessed).
+     * Calculates the number of oranges wasted (remainder and unprocessed). While the plant runs this includes the
+     * oranges still on their way through it. In a {@link StealGroup}, oranges another plant stole from this one count
+     * as that plant's, and oranges this plant stole as its own.
      *
      * @return Number of wasted oranges.
      */
     public int getWaste() {
-        return orangesProcessed % ORANGES_PER_BOTTLE + (orangesProvided - orangesProcessed);
+        int processed = getProcessedOranges();
+        long stolen = counters.getStolenIn() - counters.getStolenOut();
+        return processed % config.getOrangesPerBottle() + (int) (getProvidedOranges() + stolen - processed);
+    }
+
+    /**
+     * Gets the name of this plant, which is also the name of its thread.
+     *
+     * @return Plant name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the plant's stages in production line order. Entries are {@code null} until the plant has started, and stay
+     * {@code null} unless it runs on {@link Engine#CONVEYORS}.
+     *
+     * @return Stages of this plant.
+     */
+    Stage[] getStages() {
+        return stages;
+    }
+
+    /**
+     * Gets the number of oranges thrown away because the plant could not drain them before its deadline.
+     *
+     * @return Number of abandoned oranges.
+     */
+    public long getAbandonedOranges() {
+        if (line != null) {
+            return line.getAbandonedOranges();
+        }
+        return restoredAbandoned + peelingQueue.getAbandoned() + squeezingQueue.getAbandoned()
+                + bottlingQueue.getAbandoned();
     }
 
     /**
-     * Initiates worker shutdown sequence. Stops workers, waits briefly, and prints final queue sizes.
+     * Gets the number of oranges thrown away by full conveyors, see {@link Backpressure}.
+     *
+     * @return Number of dropped oranges.
+     */
+    public long getDroppedOranges() {
+        return restoredDropped + peelingQueue.getDropped() + squeezingQueue.getDropped() + bottlingQueue.getDropped();
+    }
+
+    /**
+     * Initiates worker shutdown sequence and prints final queue sizes.
+     * <p>
+     * Intake stops first: only the fetchers are told to stop. Every later stage finishes what is on its input conveyor
+     * and then stops on its own, so the line drains in production line order. If it has not drained by
+     * {@link PlantConfig#getDrainTimeout()}, the remaining oranges are abandoned. Either way every orange the plant
+     * fetched ends up completed, dropped at a full conveyor, or abandoned, and the drain report says how many.
+     * </p>
      * Uses a synchronized block to ensure shutdown messages are printed only once across plants.
      */
     private void quittinTime() {
-        System.out.println("Blowing the horn! Work is ending...");
+        ConsoleLog.info("Blowing the horn! Work is ending...");
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(config.getDrainTimeout());
+        if (line != null) {
+            boolean drained = line.stop(config.getDrainTimeout());
+            long drainMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            ConsoleLog.info(name + " drained in " + drainMillis + " ms: " + line.getProcessedOranges()
+                    + " completed, " + line.getAbandonedOranges() + " abandoned"
+                    + (drained ? "" : " (drain deadline hit)"));
+            return;
+        }
 
-        // Step 1: Stop workers
-        fetcher.stopWorking();
-        peeler.stopWorking();
-        squeezer.stopWorking();
-        bottler.stopWorking();
+        // Step 1: Stop intake, once nothing can move workers between stages anymore
+        if (balancer != null) {
+            balancer.stop();
+        }
+        if (fetchController != null) {
+            fetchController.stop();
+        }
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        stages[PlantConfig.FETCHER].stopWorkers();
 
-        // Step 2: Give workers some time to finish up remaining work
-        try {
-            Thread.sleep(500); // Give workers half a second to wrap up their queues
-        } catch (InterruptedException e) {
-            System.err.println("Error while pausing for workers to finish.");
+        // Step 2: Wait for each stage to drain, in production line order, until the deadline
+        boolean drained = true;
+        for (Stage stage : stages) {
+            if (!stage.awaitWorkers(deadline)) {
+                drained = false;
+                break;
+            }
+        }
+
+        // Step 3: Out of time. Throw away what is still waiting; workers finish the orange in hand, which the
+        // closed conveyors refuse and count, so waiting for them now takes at most one orange. A worker that still
+        // isn't done after that is left behind rather than holding up the shutdown
+        if (!drained) {
+            Conveyor[] line = {peelingQueue, squeezingQueue, bottlingQueue};
+            for (Conveyor c : line) {
+                c.abandon();
+            }
+            long stragglers = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STRAGGLER_MILLIS);
+            for (Stage stage : stages) {
+                if (!stage.awaitWorkers(stragglers)) {
+                    ConsoleLog.warn(name + " left " + stage.getName() + " workers still running after the drain");
+                    break;
+                }
+            }
+            // Pick up anything that landed between the first sweep and the workers stopping
+            for (Conveyor c : line) {
+                c.abandon();
+            }
         }
+        long drainMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        ConsoleLog.info(name + " drained in " + drainMillis + " ms: " + processedOranges.getOranges() + " completed, "
+                + getAbandonedOranges() + " abandoned, " + getDroppedOranges() + " dropped"
+                + (drained ? "" : " (drain deadline hit)"));
 
-        // Step 3: Final queue cleanup ensuring it's only printed once
+        // Step 4: Final queue cleanup ensuring it's only printed once
         // Only print queue sizes if it hasn’t been printed before
         synchronized (Plant.class) {
             if (!shutdownPrinted) {
                 shutdownPrinted = true;
                 //Mainly for debugging however a great visualization of the queues at the end
                 //Because of this, I choose to keep it in.
-                System.out.println("Final queue sizes before shutdown:");
-                System.out.println("Peeling queue: " + peelingQueue.size());
-                System.out.println("Squeezing queue: " + squeezingQueue.size());
-                System.out.println("Bottling queue: " + bottlingQueue.size());
-
-                // Log remaining peeled oranges
-                if (!peelingQueue.isEmpty()) {
-                    System.err.println("WARNING: Some oranges were left not peeled.");
-                }
-                //Log remaining squeezed oranges
-                if (!squeezingQueue.isEmpty()) {
-                    System.err.println("WARNING: Some oranges were left not squoze.");
-                }
+                ConsoleLog.info("Final queue sizes before shutdown:");
+                ConsoleLog.info("Peeling queue: " + peelingQueue.size());
+                ConsoleLog.info("Squeezing queue: " + squeezingQueue.size());
+                ConsoleLog.info("Bottling queue: " + bottlingQueue.size());
 
-                // Log if remaining oranges to be bottled
-                if (!bottlingQueue.isEmpty()) {
-                    System.err.println("WARNING: Some oranges were left not bottled.");
+                // Log abandoned oranges
+                if (getAbandonedOranges() > 0) {
+                    ConsoleLog.warn("WARNING: Some oranges were abandoned before they were bottled.");
                 }
 
-                System.out.println("All workers have been stopped.");
+                ConsoleLog.info("All workers have been stopped.");
             }
         }
     }
 }
-
@@ -0,0 +1,577 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * <h1>PlantConfig</h1>
+ * Settings for a single {@link Plant} instance.
+ * <p>
+ * Holds how many {@link Worker} threads each stage gets, whether the plant should move workers between stages
+ * while it runs, how much each {@link Conveyor} between stages can hold, what kind of threads the plant and its
+ * workers run on, and when the plant stops on its own. A fresh {@code PlantConfig} holds the defaults; the setters
+ * return {@code this} so settings can be chained.
+ * </p>
+ *
+ * <h2>Stages:</h2>
+ * <p>
+ * Stage indexes follow the production line: {@link #FETCHER}, {@link #PEELER}, {@link #SQUEEZER}, {@link #BOTTLER}.
+ * </p>
+ */
+public class PlantConfig {
+    /**
+     * Stage indexes, in production line order.
+     */
+    public static final int FETCHER = 0;
+    public static final int PEELER = 1;
+    public static final int SQUEEZER = 2;
+    public static final int BOTTLER = 3;
+    /**
+     * Number of stages in the production line.
+     */
+    public static final int NUM_STAGES = 4;
+    /**
+     * Workers per stage. Peeling is the slowest stage (see {@link Orange.State}), so it gets a second worker.
+     */
+    private final int[] workersPerStage = {1, 2, 1, 1};
+    /**
+     * Whether a {@link StageBalancer} moves workers toward the stage with the deepest backlog.
+     */
+    private boolean balanceWorkers = false;
+    /**
+     * How often the balancer looks at the stages, in milliseconds.
+     */
+    private long balanceInterval = 250;
+    /**
+     * Whether a {@link FetchController} sets the fetch rate from what the later stages finish, and how often, in
+     * milliseconds.
+     */
+    private boolean controlFetchRate = false;
+    private long controlInterval = 250;
+    /**
+     * Maximum number of oranges waiting in front of a stage. Keeps the fetcher from piling up oranges the slower
+     * stages can never get to.
+     */
+    private int queueCapacity = 64;
+    /**
+     * What a worker does when the next stage's conveyor is full.
+     */
+    private Backpressure backpressure = Backpressure.BLOCK;
+    /**
+     * Runs the plant and its workers. Every task blocks for the plant's whole lifetime, so the executor must give each
+     * one its own thread.
+     */
+    private Executor executor = ExecutionMode.PLATFORM;
+    /**
+     * How long the plant runs before stopping itself, in milliseconds. 0 means until {@link Plant#stopPlant()}.
+     */
+    private long runTime = 0;
+    /**
+     * Number of bottled oranges after which the plant stops itself. 0 means no target.
+     */
+    private long targetOranges = 0;
+    /**
+     * How long the plant may take to drain its conveyors once it stops, in milliseconds.
+     */
+    private long drainTimeout = 2000;
+    /**
+     * Largest number of oranges a worker moves through its stage at once. 1 means one orange at a time.
+     */
+    private int batchSize = 1;
+    /**
+     * How oranges move between the stages.
+     */
+    private Engine engine = Engine.CONVEYORS;
+    /**
+     * Plants whose idle workers steal from each other, {@code null} for a plant on its own.
+     */
+    private StealGroup stealGroup;
+    /**
+     * Where the plant records every orange each stage processes, {@code null} for nowhere.
+     */
+    private ProductionLog productionLog;
+    /**
+     * Where the plant saves its state and restores it from, {@code null} for nowhere.
+     */
+    private Checkpoint checkpoint;
+    /**
+     * What the plant's workers wait for before they start working, {@code null} to start right away.
+     */
+    private CountDownLatch startSignal;
+    /**
+     * Oranges needed per bottle.
+     */
+    private int orangesPerBottle = 4;
+    /**
+     * Limits how fast the fetchers fetch, {@code null} for as fast as they can.
+     */
+    private FetchPacer fetchPacer;
+    /**
+     * When the fetchers may start new oranges.
+     */
+    private Scheduling scheduling = Scheduling.FIFO;
+
+    /**
+     * Gets the number of workers a stage starts with.
+     *
+     * @param stage Stage index, e.g. {@link #PEELER}.
+     * @return Number of workers for that stage.
+     */
+    public int getWorkers(int stage) {
+        return workersPerStage[stage];
+    }
+
+    /**
+     * Sets the number of workers a stage starts with.
+     *
+     * @param stage   Stage index, e.g. {@link #PEELER}.
+     * @param workers Number of workers, at least one.
+     * @return This config.
+     * @throws IllegalArgumentException if {@code workers} is less than one.
+     */
+    public PlantConfig setWorkers(int stage, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Every stage needs at least one worker");
+        }
+        workersPerStage[stage] = workers;
+        return this;
+    }
+
+    /**
+     * Gets the total number of workers across all stages.
+     *
+     * @return Total number of workers.
+     */
+    public int getTotalWorkers() {
+        int total = 0;
+        for (int w : workersPerStage) {
+            total += w;
+        }
+        return total;
+    }
+
+    /**
+     * Checks whether adaptive worker balancing is turned on.
+     *
+     * @return {@code true} if a {@link StageBalancer} runs alongside the plant.
+     */
+    public boolean isBalanceWorkers() {
+        return balanceWorkers;
+    }
+
+    /**
+     * Turns adaptive worker balancing on or off.
+     *
+     * @param balanceWorkers {@code true} to let a {@link StageBalancer} move workers between stages.
+     * @return This config.
+     */
+    public PlantConfig setBalanceWorkers(boolean balanceWorkers) {
+        this.balanceWorkers = balanceWorkers;
+        return this;
+    }
+
+    /**
+     * Gets how often the balancer runs.
+     *
+     * @return Balancing interval in milliseconds.
+     */
+    public long getBalanceInterval() {
+        return balanceInterval;
+    }
+
+    /**
+     * Sets how often the balancer runs.
+     *
+     * @param balanceInterval Balancing interval in milliseconds, at least one.
+     * @return This config.
+     * @throws IllegalArgumentException if {@code balanceInterval} is less than one.
+     */
+    public PlantConfig setBalanceInterval(long balanceInterval) {
+        if (balanceInterval < 1) {
+            throw new IllegalArgumentException("Balance interval must be at least 1 ms");
+        }
+        this.balanceInterval = balanceInterval;
+        return this;
+    }
+
+    /**
+     * Checks whether the fetch rate follows what the plant can bottle.
+     *
+     * @return {@code true} if a {@link FetchController} runs alongside the plant.
+     */
+    public boolean isControlFetchRate() {
+        return controlFetchRate;
+    }
+
+    /**
+     * Turns the fetch rate controller on or off. A plant with a controller can't also have a
+     * {@link #setFetchPacer fetch pacer}. Only {@link Engine#CONVEYORS} plants are controlled.
+     *
+     * @param controlFetchRate {@code true} to let a {@link FetchController} pace the fetchers.
+     * @return This config.
+     */
+    public PlantConfig setControlFetchRate(boolean controlFetchRate) {
+        this.controlFetchRate = controlFetchRate;
+        return this;
+    }
+
+    /**
+     * Gets how often the fetch rate controller adjusts the rate.
+     *
+     * @return Control interval in milliseconds.
+     */
+    public long getControlInterval() {
+        return controlInterval;
+    }
+
+    /**
+     * Sets how often the fetch rate controller adjusts the rate.
+     *
+     * @param controlInterval Control interval in milliseconds, at least one.
+     * @return This config.
+     * @throws IllegalArgumentException if {@code controlInterval} is less than one.
+     */
+    public PlantConfig setControlInterval(long controlInterval) {
+        if (controlInterval < 1) {
+            throw new IllegalArgumentException("Control interval must be at least 1 ms");
+        }
+        this.controlInterval = controlInterval;
+        return this;
+    }
+
+    /**
+     * Gets the capacity of each conveyor between stages.
+     *
+     * @return Maximum number of oranges waiting in front of a stage.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the capacity of each conveyor between stages.
+     *
+     * @param queueCapacity Maximum number of oranges waiting in front of a stage, at least one.
+     *                      {@link Integer#MAX_VALUE} makes the conveyors unbounded.
+     * @return This config.
+     * @throws IllegalArgumentException if {@code queueCapacity} is less than one.
+     */
+    public PlantConfig setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Gets the policy applied when a conveyor between stages is full.
+     *
+     * @return Backpressure policy.
+     */
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    /**
+     * Sets the policy applied when a conveyor between stages is full.
+     *
+     * @param backpressure Backpressure policy.
+     * @return This config.
+     */
+    public PlantConfig setBackpressure(Backpressure backpressure) {
+        this.backpressure = backpressure;
+        return this;
+    }
+
+    /**
+     * Gets the executor that runs the plant and its workers.
+     *
+     * @return Plant executor, {@link ExecutionMode#PLATFORM} by default.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor that runs the plant and its workers, e.g. {@link ExecutionMode#VIRTUAL}.
+     *
+     * @param executor Executor that gives every submitted task its own thread.
+     * @return This config.
+     */
+    public PlantConfig setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Gets how long the plant runs before stopping itself.
+     *
+     * @return Run time in milliseconds, 0 if the plant runs until stopped.
+     */
+    public long getRunTime() {
+        return runTime;
+    }
+
+    /**
+     * Sets how long the plant runs before stopping itself.
+     *
+     * @param runTime Run time in milliseconds, 0 to run until {@link Plant#stopPlant()} is called.
+     * @return This config.
+     * @throws IllegalArgumentException if {@code runTime} is negative.
+     */
+    public PlantConfig setRunTime(long runTime) {
+        if (runTime < 0) {
+            throw new IllegalArgumentException("Run time can't be negative");
+        }
+        this.runTime = runTime;
+        return this;
+    }
+
+    /**
+     * Gets the number of bottled oranges after which the plant stops itself.
+     *
+     * @return Target number of oranges, 0 if there is no target.
+     */
+    public long getTargetOranges() {
+        return targetOranges;
+    }
+
+    /**
+     * Sets the number of bottled oranges after which the plant stops itself. Whichever comes first of the run time,
+     * the target, or {@link Plant#stopPlant()} ends the run.
+     *
+     * @param targetOranges Target number of oranges, 0 for no target.
+     * @return This config.
+     * @throws IllegalArgumentException if {@code targetOranges} is negative.
+     */
+    public PlantConfig setTargetOranges(long targetOranges) {
+        if (targetOranges < 0) {
+            throw new IllegalArgumentException("Target can't be negative");
+        }
+        this.targetOranges = targetOranges;
+        return this;
+    }
+
+    /**
+     * Gets how long the plant may take to drain its conveyors once it stops.
+     *
+     * @return Drain deadline in milliseconds.
+     */
+    public long getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /**
+     * Sets how long the plant may take to drain its conveyors once it stops. Oranges still waiting when the deadline
+     * passes are abandoned.
+     *
+     * @param drainTimeout Drain deadline in milliseconds, 0 to abandon everything not already in a worker's hands.
+     * @return This config.
+     * @throws IllegalArgumentException if {@code drainTimeout} is negative.
+     */
+    public PlantConfig setDrainTimeout(long drainTimeout) {
+        if (drainTimeout < 0) {
+            throw new IllegalArgumentException("Drain timeout can't be negative");
+        }
+        this.drainTimeout = drainTimeout;
+        return this;
+    }
+
+    /**
+     * Gets the largest number of oranges a worker moves through its stage at once.
+     *
+     * @return Maximum batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the largest number of oranges a worker moves through its stage at once. Workers take up to this many from
+     * their input, process them, and publish them downstream in one operation. The actual batch adapts to the queue
+     * depth, see {@link Stage#getBatchLimit()}.
+     *
+     * @param batchSize Maximum batch size, 1 to move one orange at a time.
+     * @return This config.
+     * @throws IllegalArgumentException if {@code batchSize} is less than one.
+     */
+    public PlantConfig setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Gets how the plant moves oranges between its stages.
+     *
+     * @return Engine, {@link Engine#CONVEYORS} by default.
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets how the plant moves oranges between its stages. The worker counts, queue capacity, run time, target and
+     * drain timeout apply to every engine; see {@link Engine} for what the others leave out.
+     *
+     * @param engine Engine to use.
+     * @return This config.
+     */
+    public PlantConfig setEngine(Engine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    /**
+     * Gets the group of plants this plant's idle workers steal from.
+     *
+     * @return Steal group, {@code null} if the plant is on its own.
+     */
+    public StealGroup getStealGroup() {
+        return stealGroup;
+    }
+
+    /**
+     * Puts the plant in a {@link StealGroup}, so its idle workers steal oranges from the other plants in the group and
+     * theirs from it. Only {@link Engine#CONVEYORS} plants steal. Every plant in the group needs its own config.
+     *
+     * @param stealGroup Group to join, {@code null} for none.
+     * @return This config.
+     */
+    public PlantConfig setStealGroup(StealGroup stealGroup) {
+        this.stealGroup = stealGroup;
+        return this;
+    }
+
+    /**
+     * Gets the log the plant records every processed orange in.
+     *
+     * @return Production log, {@code null} if the plant keeps no log.
+     */
+    public ProductionLog getProductionLog() {
+        return productionLog;
+    }
+
+    /**
+     * Records every orange each stage of the plant processes in a {@link ProductionLog}, which several plants may
+     * share. Only {@link Engine#CONVEYORS} plants write to it. The log is not closed by the plant.
+     *
+     * @param productionLog Log to write to, {@code null} for none.
+     * @return This config.
+     */
+    public PlantConfig setProductionLog(ProductionLog productionLog) {
+        this.productionLog = productionLog;
+        return this;
+    }
+
+    /**
+     * Gets the checkpoint the plant saves its state to.
+     *
+     * @return Checkpoint, {@code null} if the plant keeps none.
+     */
+    public Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Saves the plant's state in a {@link Checkpoint} while it runs, and restores whatever the checkpoint holds for the
+     * plant's number when the plant is constructed. Several plants may share one checkpoint. Only
+     * {@link Engine#CONVEYORS} plants are saved. The checkpoint is not started or stopped by the plant.
+     *
+     * @param checkpoint Checkpoint to use, {@code null} for none.
+     * @return This config.
+     */
+    public PlantConfig setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * Gets the signal the plant's workers wait for before they start working.
+     *
+     * @return Start signal, {@code null} if the workers start right away.
+     */
+    public CountDownLatch getStartSignal() {
+        return startSignal;
+    }
+
+    /**
+     * Makes the plant's workers wait for a signal before touching their first orange, so a whole {@link Fleet} can be
+     * created before any of it competes for the CPU. The plant counts as started, see {@link Plant#awaitStarted(long)},
+     * once its workers are waiting. Its run time only starts counting once the signal is released.
+     *
+     * @param startSignal Released when the workers may start, {@code null} to start right away.
+     * @return This config.
+     */
+    public PlantConfig setStartSignal(CountDownLatch startSignal) {
+        this.startSignal = startSignal;
+        return this;
+    }
+
+    /**
+     * Gets the pacer that limits how fast the plant's fetchers fetch.
+     *
+     * @return Fetch pacer, {@code null} if fetching is not paced.
+     */
+    public FetchPacer getFetchPacer() {
+        return fetchPacer;
+    }
+
+    /**
+     * Makes the plant's fetchers fetch no faster than a pacer allows. Plants that share a pacer share its rate. Only
+     * {@link Engine#CONVEYORS} plants are paced.
+     *
+     * @param fetchPacer Fetch pacer, {@code null} for as fast as the fetchers can go.
+     * @return This config.
+     */
+    public PlantConfig setFetchPacer(FetchPacer fetchPacer) {
+        this.fetchPacer = fetchPacer;
+        return this;
+    }
+
+    /**
+     * Gets when the plant's fetchers may start new oranges.
+     *
+     * @return Scheduling policy.
+     */
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    /**
+     * Sets when the plant's fetchers may start new oranges, see {@link StageScheduler}. Only {@link Engine#CONVEYORS}
+     * plants are scheduled.
+     *
+     * @param scheduling Scheduling policy.
+     * @return This config.
+     */
+    public PlantConfig setScheduling(Scheduling scheduling) {
+        this.scheduling = scheduling;
+        return this;
+    }
+
+    /**
+     * Gets the number of oranges that go into one bottle.
+     *
+     * @return Oranges per bottle.
+     */
+    public int getOrangesPerBottle() {
+        return orangesPerBottle;
+    }
+
+    /**
+     * Sets the number of oranges that go into one bottle.
+     *
+     * @param orangesPerBottle Oranges per bottle, at least one.
+     * @return This config.
+     * @throws IllegalArgumentException if {@code orangesPerBottle} is less than one.
+     */
+    public PlantConfig setOrangesPerBottle(int orangesPerBottle) {
+        if (orangesPerBottle < 1) {
+            throw new IllegalArgumentException("A bottle needs at least 1 orange");
+        }
+        this.orangesPerBottle = orangesPerBottle;
+        return this;
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>ProductionCounters</h1>
+ * Counts what a plant's stages have done: oranges fetched, peeled, squeezed and bottled, and oranges wasted after
+ * each stage.
+ * <p>
+ * Every count is striped: a {@link LongAdder} keeps one cell per contending thread and only adds them up when read,
+ * so the workers of a stage never wait on each other to count, however many there are, and a read costs one pass
+ * over a handful of cells no matter how many oranges went through. Counts are exact at any moment during a run, not
+ * only after shutdown.
+ * </p>
+ *
+ * <p>
+ * An orange is wasted after a stage when the stage finished it but the next stage never got it: the conveyor in
+ * between dropped it (see {@link Backpressure}), refused it because it was closed, or threw it away when the plant
+ * could not drain in time. Those are counted by the conveyors themselves, which are striped the same way, and merged in
+ * here when read.
+ * </p>
+ *
+ * <p>
+ * In a {@link StealGroup} an orange can be fetched by one plant and finished by another. The oranges this plant's
+ * workers stole from other plants, and those other plants' workers stole from this one, are counted too, so each
+ * plant can account for the oranges it actually had.
+ * </p>
+ */
+public class ProductionCounters {
+    /**
+     * Oranges each stage has finished, indexed like {@link PlantConfig#PEELER}.
+     */
+    private final LongAdder[] processed = new LongAdder[PlantConfig.NUM_STAGES];
+    /**
+     * The conveyor each stage sends to, {@code null} for the bottler.
+     */
+    private final Conveyor[] outputs;
+    /**
+     * Oranges this plant's workers stole from other plants, and other plants' workers stole from this one.
+     */
+    private final LongAdder stolenIn = new LongAdder();
+    private final LongAdder stolenOut = new LongAdder();
+
+    /**
+     * Constructs counters at zero.
+     *
+     * @param outputs The conveyor after each stage, indexed like {@link PlantConfig#PEELER}; {@code null} for a stage
+     *                whose oranges can't be wasted, i.e. the bottler.
+     */
+    public ProductionCounters(Conveyor[] outputs) {
+        if (outputs.length != PlantConfig.NUM_STAGES) {
+            throw new IllegalArgumentException("Need one output per stage, got " + outputs.length);
+        }
+        this.outputs = outputs.clone();
+        for (int s = 0; s < processed.length; s++) {
+            processed[s] = new LongAdder();
+        }
+    }
+
+    /**
+     * Gets the counter a stage adds its finished oranges to.
+     *
+     * @param stage Stage index.
+     * @return The stage's counter.
+     */
+    LongAdder processedBy(int stage) {
+        return processed[stage];
+    }
+
+    /**
+     * Counts a steal by a worker of this plant from another plant.
+     *
+     * @param oranges Number of oranges stolen.
+     */
+    void stoleIn(int oranges) {
+        stolenIn.add(oranges);
+    }
+
+    /**
+     * Counts a steal by a worker of another plant from this plant.
+     *
+     * @param oranges Number of oranges stolen.
+     */
+    void stoleOut(int oranges) {
+        stolenOut.add(oranges);
+    }
+
+    /**
+     * Gets the number of oranges a stage has finished.
+     *
+     * @param stage Stage index, e.g. {@link PlantConfig#PEELER}.
+     * @return Number of oranges.
+     */
+    public long getProcessed(int stage) {
+        return processed[stage].sum();
+    }
+
+    /**
+     * Gets the number of oranges fetched.
+     *
+     * @return Number of oranges.
+     */
+    public long getFetched() {
+        return getProcessed(PlantConfig.FETCHER);
+    }
+
+    /**
+     * Gets the number of oranges peeled.
+     *
+     * @return Number of oranges.
+     */
+    public long getPeeled() {
+        return getProcessed(PlantConfig.PEELER);
+    }
+
+    /**
+     * Gets the number of oranges squeezed.
+     *
+     * @return Number of oranges.
+     */
+    public long getSqueezed() {
+        return getProcessed(PlantConfig.SQUEEZER);
+    }
+
+    /**
+     * Gets the number of oranges bottled.
+     *
+     * @return Number of oranges.
+     */
+    public long getBottled() {
+        return getProcessed(PlantConfig.BOTTLER);
+    }
+
+    /**
+     * Gets the number of oranges a stage finished that never reached the next stage.
+     *
+     * @param stage Stage index, e.g. {@link PlantConfig#PEELER}.
+     * @return Number of oranges dropped or abandoned on the stage's output conveyor.
+     */
+    public long getWasted(int stage) {
+        Conveyor out = outputs[stage];
+        return out == null ? 0 : out.getDropped() + out.getAbandoned();
+    }
+
+    /**
+     * Gets the number of oranges wasted between the stages, over all stages.
+     *
+     * @return Number of oranges dropped or abandoned on any conveyor.
+     */
+    public long getWasted() {
+        long total = 0;
+        for (int s = 0; s < outputs.length; s++) {
+            total += getWasted(s);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of oranges this plant's workers stole from other plants of its {@link StealGroup}.
+     *
+     * @return Number of oranges.
+     */
+    public long getStolenIn() {
+        return stolenIn.sum();
+    }
+
+    /**
+     * Gets the number of oranges other plants of its {@link StealGroup} stole from this plant.
+     *
+     * @return Number of oranges.
+     */
+    public long getStolenOut() {
+        return stolenOut.sum();
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * <h1>ProductionLine</h1>
+ * The four stages of a {@link Plant} when they are not run as {@link Worker}s on {@link Conveyor}s, see
+ * {@link Engine}.
+ * <p>
+ * A line runs every stage with the worker counts, queue capacity and {@link Orange#getCostModel() cost model} of the
+ * plant's {@link PlantConfig}, and keeps the same accounting: every orange it fetches is either finished or, if the
+ * line could not drain in time, abandoned.
+ * </p>
+ */
+public interface ProductionLine {
+    /**
+     * Starts every stage's workers on {@link PlantConfig#getExecutor()}.
+     */
+    void start();
+
+    /**
+     * Stops fetching and waits for the line to drain. Oranges not finished when the drain timeout runs out are
+     * abandoned.
+     *
+     * @param drainTimeoutMillis How long to let the line drain.
+     * @return {@code true} if every orange was finished.
+     */
+    boolean stop(long drainTimeoutMillis);
+
+    /**
+     * Sets an action to run once the line has finished {@code count} oranges.
+     *
+     * @param count  Number of oranges to wait for.
+     * @param action Action to run, on the worker thread that reaches the count.
+     */
+    void setTarget(long count, Runnable action);
+
+    /**
+     * Gets the number of oranges fetched so far.
+     *
+     * @return Number of fetched oranges.
+     */
+    long getProvidedOranges();
+
+    /**
+     * Gets the number of oranges bottled so far.
+     *
+     * @return Number of finished oranges.
+     */
+    long getProcessedOranges();
+
+    /**
+     * Gets the number of oranges thrown away because the line could not drain them before its deadline.
+     *
+     * @return Number of abandoned oranges.
+     */
+    long getAbandonedOranges();
+
+    /**
+     * Gets the number of oranges waiting in front of a stage.
+     *
+     * @param stage Stage index, e.g. {@link PlantConfig#PEELER}.
+     * @return Queue depth, 0 for the fetcher.
+     */
+    int getQueueSize(int stage);
+}
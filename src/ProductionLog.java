@@ -0,0 +1,225 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>ProductionLog</h1>
+ * An append-only record of every step every orange went through, written to a memory-mapped file.
+ * <p>
+ * Each time a worker finishes an orange it appends one fixed-size record: the orange's ID, the plant, the stage, and
+ * when the orange was put in front of the stage, when the worker started on it and when it finished. Any number of
+ * plants can share one log. {@link LogReplay} reads it back once {@link #close()} has returned.
+ * </p>
+ *
+ * <h2>Writing:</h2>
+ * <p>
+ * The file is mapped with {@link FileChannel#map} in segments of {@value #SEGMENT_RECORDS} records, each one the first
+ * time a record falls into it, so the file only grows as far as the log is filled. A writer claims its record's slot
+ * with a single atomic increment and then writes the record straight into the mapping, so a worker never takes a lock,
+ * never makes a system call and never waits for the disk; the operating system writes the pages back in its own time.
+ * Only the writer that opens a new segment maps it, under a lock. The log has a fixed capacity. Once it is full,
+ * further records are counted in {@link #getDropped()} and thrown away rather than making anybody wait.
+ * </p>
+ *
+ * <h2>File format:</h2>
+ * <p>
+ * All numbers little-endian. A {@value #HEADER_SIZE}-byte header: magic {@code "ORNGLOG1"}, record size, capacity
+ * and the number of records written, which is filled in by {@link #close()}. Then {@code capacity} records of
+ * {@value #RECORD_SIZE} bytes: orange ID (long), plant (int), stage + 1 (int, 0 for a slot nobody wrote), enqueued,
+ * started and finished as {@link System#nanoTime()} values (3 longs). The file ends after the last segment that was
+ * mapped, so it can be shorter than {@code capacity} records.
+ * </p>
+ *
+ * <p>
+ * Nothing orders the writes to the mapping for another reader, so a log is only complete once {@link #close()} has
+ * returned. A log that was never closed, e.g. after a crash, has a record count of 0; readers then fall back to the
+ * records whose stage is set, which is best effort and may include records that were only partly written.
+ * </p>
+ */
+public class ProductionLog implements AutoCloseable {
+    /**
+     * First eight bytes of every log file.
+     */
+    static final long MAGIC = 0x31474F4C474E524FL; // "ORNGLOG1" read as a little-endian long
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 40;
+    /**
+     * Byte offsets of the header fields, and of the fields within a record.
+     */
+    static final int HEADER_RECORD_SIZE = 8;
+    static final int HEADER_CAPACITY = 12;
+    static final int HEADER_COUNT = 20;
+    static final int ID = 0;
+    static final int PLANT = 8;
+    static final int STAGE = 12;
+    static final int ENQUEUED = 16;
+    static final int STARTED = 24;
+    static final int FINISHED = 32;
+    /**
+     * Most records one log can hold, as a single mapping is limited to 2 GB.
+     */
+    public static final long MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+    /**
+     * Records per mapped segment.
+     */
+    static final int SEGMENT_RECORDS = 1 << 16;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    /**
+     * Mapped segments, {@code null} until a record falls into them.
+     */
+    private final AtomicReferenceArray<MappedByteBuffer> segments;
+    private final long capacity;
+    /**
+     * Next free record slot. Can run past {@link #capacity}; those claims are the dropped records.
+     */
+    private final AtomicLong next = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Creates a log file, replacing any file already there, with room for {@code capacity} records. The file starts
+     * out with only its header and grows as records are written.
+     *
+     * @param file     File to write.
+     * @param capacity Number of records the log holds, at most {@link #MAX_CAPACITY}.
+     * @throws IOException              if the file can't be created or mapped.
+     * @throws IllegalArgumentException if {@code capacity} is out of range.
+     */
+    public ProductionLog(Path file, long capacity) throws IOException {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Log capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        this.file = file;
+        this.capacity = capacity;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments = new AtomicReferenceArray<MappedByteBuffer>((int) ((capacity - 1) / SEGMENT_RECORDS + 1));
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(0, MAGIC);
+        header.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+        header.putLong(HEADER_CAPACITY, capacity);
+        header.putLong(HEADER_COUNT, 0);
+    }
+
+    /**
+     * Appends one record. Never blocks, except to map a new segment; if the log is full or closed the record is
+     * dropped.
+     *
+     * @param orangeId ID of the orange, see {@link Orange#getId()}.
+     * @param plant    Plant number.
+     * @param stage    Stage index, e.g. {@link PlantConfig#PEELER}.
+     * @param enqueued When the orange was put in front of the stage, as a {@link System#nanoTime()} value.
+     * @param started  When the worker started on it.
+     * @param finished When the worker finished it.
+     */
+    public void record(long orangeId, int plant, int stage, long enqueued, long started, long finished) {
+        long slot = next.getAndIncrement();
+        if (slot >= capacity || closed) {
+            dropped.increment();
+            return;
+        }
+        int segment = (int) (slot / SEGMENT_RECORDS);
+        MappedByteBuffer buffer = segments.get(segment);
+        if (buffer == null && (buffer = map(segment)) == null) {
+            dropped.increment();
+            return;
+        }
+        int at = (int) (slot % SEGMENT_RECORDS) * RECORD_SIZE;
+        buffer.putLong(at + ID, orangeId);
+        buffer.putInt(at + PLANT, plant);
+        buffer.putInt(at + STAGE, stage + 1);
+        buffer.putLong(at + ENQUEUED, enqueued);
+        buffer.putLong(at + STARTED, started);
+        buffer.putLong(at + FINISHED, finished);
+    }
+
+    /**
+     * Maps a segment, unless another writer just did.
+     *
+     * @return The segment, {@code null} if the log is closed or the file can't grow.
+     */
+    private synchronized MappedByteBuffer map(int segment) {
+        MappedByteBuffer buffer = segments.get(segment);
+        if (buffer != null || closed) {
+            return buffer;
+        }
+        long first = (long) segment * SEGMENT_RECORDS;
+        long records = Math.min(SEGMENT_RECORDS, capacity - first);
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + first * RECORD_SIZE,
+                    records * RECORD_SIZE);
+        } catch (IOException e) {
+            ConsoleLog.warn("Could not grow production log " + file + ": " + e.getMessage());
+            return null;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        segments.set(segment, buffer);
+        return buffer;
+    }
+
+    /**
+     * Gets the number of records written so far.
+     *
+     * @return Number of records in the log.
+     */
+    public long getRecords() {
+        return Math.min(next.get(), capacity);
+    }
+
+    /**
+     * Gets the number of records thrown away because the log was full.
+     *
+     * @return Number of dropped records.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Gets the file this log writes to.
+     *
+     * @return Log file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Stops accepting records, writes the record count to the header and flushes the file to disk. Should be called
+     * once every plant writing to the log has stopped.
+     *
+     * @throws IOException if the file can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        MappedByteBuffer[] mapped;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            mapped = new MappedByteBuffer[segments.length()];
+            for (int s = 0; s < mapped.length; s++) {
+                mapped[s] = segments.get(s);
+            }
+        }
+        for (MappedByteBuffer buffer : mapped) {
+            if (buffer != null) {
+                buffer.force();
+            }
+        }
+        header.putLong(HEADER_COUNT, getRecords());
+        header.force();
+        channel.close();
+    }
+}
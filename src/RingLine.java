@@ -0,0 +1,425 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>RingLine</h1>
+ * A production line built on one pre-allocated ring per plant instead of a conveyor between every pair of stages,
+ * in the style of the LMAX Disruptor.
+ * <p>
+ * Every orange the line fetches gets the next sequence number, and sequence {@code s} lives in ring slot
+ * {@code s % size} for its whole trip through the plant: its state byte and timestamp are written in place, and no
+ * stage ever copies it anywhere. Each stage hands out sequences to its workers from its own cursor,
+ * {@link #claimed}, and a worker holding sequence {@code s} waits until the stage before has published {@code s}
+ * before working on it. The fetcher's "stage before" is the bottler one lap earlier: slot {@code s % size} is free
+ * once the bottler has published {@code s - size}. So the ring is also the queue capacity, and the fetcher can never
+ * lap the bottler.
+ * </p>
+ *
+ * <h2>Publishing:</h2>
+ * <p>
+ * A stage with several workers finishes its sequences out of order, so a single "done up to here" cursor per stage
+ * would make a quick worker wait for a slow sibling. Instead every stage records, per slot, the last sequence it
+ * finished there ({@link #published}), which is what the next stage waits on. A waiting worker spins briefly, as the
+ * stage before is usually only a hand-off away, and then parks on that stage's monitor until the stage publishes.
+ * Nothing is allocated per orange.
+ * </p>
+ *
+ * <h2>Shutdown:</h2>
+ * <p>
+ * When fetching stops, the number of sequences the fetchers handed out becomes the {@link #end} of the line. Every
+ * other stage stops once its cursor reaches it, so the line drains in production line order as a {@link Plant}
+ * does. If it has not drained by the deadline, the remaining oranges are abandoned.
+ * </p>
+ */
+public class RingLine implements ProductionLine {
+    /**
+     * Largest ring the line will allocate, so an unbounded {@link PlantConfig#getQueueCapacity()} does not turn into
+     * a multi-gigabyte ring.
+     */
+    static final int MAX_RING_SIZE = 1 << 18;
+    /**
+     * How many times a worker checks for its sequence before it parks.
+     */
+    private static final int SPINS = 200;
+    /**
+     * Orange states by ordinal, read once so the hot path does not clone {@link Orange.State#values()}.
+     */
+    private static final Orange.State[] STATES = Orange.State.values();
+    /**
+     * Name of the line, used to name its workers.
+     */
+    private final String name;
+    private final PlantConfig config;
+    /**
+     * Number of slots, a power of two, and the mask that turns a sequence into a slot.
+     */
+    private final int size;
+    private final int mask;
+    /**
+     * Per-slot orange state and the time it was last published. Only the worker holding the slot's sequence touches
+     * them; publishing the sequence makes them visible to the next stage.
+     */
+    private final byte[] states;
+    private final long[] publishedAt;
+    /**
+     * Per stage and slot, the last sequence the stage finished in that slot.
+     */
+    private final AtomicLongArray[] published = new AtomicLongArray[PlantConfig.NUM_STAGES];
+    /**
+     * Per stage, the next sequence to hand to one of its workers.
+     */
+    private final AtomicLong[] claimed = new AtomicLong[PlantConfig.NUM_STAGES];
+    /**
+     * Per stage, a monitor to park on while waiting for that stage to publish, and how many workers are parked there.
+     */
+    private final Object[] gates = new Object[PlantConfig.NUM_STAGES];
+    private final AtomicIntegerArray parked = new AtomicIntegerArray(PlantConfig.NUM_STAGES);
+    private final List<Station> stations = new ArrayList<Station>();
+    /**
+     * Fetchers still running. The last one out sets {@link #end}.
+     */
+    private final AtomicInteger fetchers = new AtomicInteger();
+    /**
+     * Oranges processed by each stage, the bottler's count being the finished oranges.
+     */
+    private final LongAdder[] serviced = new LongAdder[PlantConfig.NUM_STAGES];
+    /**
+     * Time spent by each stage on its oranges, and how long oranges waited for it after the stage before.
+     */
+    private final LatencyHistogram[] serviceTimes = new LatencyHistogram[PlantConfig.NUM_STAGES];
+    private final LatencyHistogram[] queueWaits = new LatencyHistogram[PlantConfig.NUM_STAGES];
+    /**
+     * First sequence that will never be fetched, {@link Long#MAX_VALUE} while the fetchers are running.
+     */
+    private volatile long end = Long.MAX_VALUE;
+    private volatile boolean fetching;
+    /**
+     * Set when the drain deadline has passed; every worker stops after the orange it holds.
+     */
+    private volatile boolean abandoning;
+    private long abandoned;
+    /**
+     * Called once the bottler reaches {@link #target}, {@code null} if there is no target.
+     */
+    private volatile Runnable onTarget;
+    private long target;
+    private final AtomicBoolean targetReached = new AtomicBoolean();
+
+    /**
+     * Constructs a line with an empty ring. No threads are started until {@link #start()}.
+     * <p>
+     * The ring holds as many oranges as the conveyors of a {@link Plant} with the same config plus one per worker,
+     * rounded up to a power of two.
+     * </p>
+     *
+     * @param name   Name of the line.
+     * @param config Worker counts and queue capacity.
+     */
+    public RingLine(String name, PlantConfig config) {
+        this.name = name;
+        this.config = config;
+        long wanted = (long) (PlantConfig.NUM_STAGES - 1) * config.getQueueCapacity() + config.getTotalWorkers();
+        int slots = (int) Math.min(wanted, MAX_RING_SIZE);
+        size = slots <= 1 ? 1 : Integer.highestOneBit(slots - 1) << 1;
+        mask = size - 1;
+        states = new byte[size];
+        publishedAt = new long[size];
+        for (int i = 0; i < PlantConfig.NUM_STAGES; i++) {
+            published[i] = new AtomicLongArray(size);
+            for (int slot = 0; slot < size; slot++) {
+                // The bottler "finished" the lap before sequence 0, so every slot starts out free
+                published[i].set(slot, i == PlantConfig.BOTTLER ? slot - size : Long.MIN_VALUE);
+            }
+            claimed[i] = new AtomicLong();
+            gates[i] = new Object();
+            serviced[i] = new LongAdder();
+            serviceTimes[i] = new LatencyHistogram();
+            queueWaits[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void start() {
+        String[] workerNames = {"fetcher", "peeler", "squeezer", "bottler"};
+        fetching = true;
+        for (int i = 0; i < PlantConfig.NUM_STAGES; i++) {
+            for (int w = 0; w < config.getWorkers(i); w++) {
+                if (i == PlantConfig.FETCHER) {
+                    fetchers.incrementAndGet();
+                }
+                stations.add(new Station(name + " " + workerNames[i] + " " + (w + 1), i));
+            }
+        }
+        for (Station s : stations) {
+            config.getExecutor().execute(s);
+        }
+    }
+
+    @Override
+    public boolean stop(long drainTimeoutMillis) {
+        fetching = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        boolean drained = true;
+        for (Station s : stations) {
+            if (!s.clockOut(deadline)) {
+                drained = false;
+                break;
+            }
+        }
+        if (!drained) {
+            abandoning = true;
+            wakeAll();
+            for (Station s : stations) {
+                s.clockOut();
+            }
+            abandoned = getProvidedOranges() - getProcessedOranges();
+        }
+        return drained;
+    }
+
+    @Override
+    public void setTarget(long count, Runnable action) {
+        this.target = count;
+        this.onTarget = action;
+    }
+
+    @Override
+    public long getProvidedOranges() {
+        return serviced[PlantConfig.FETCHER].sum();
+    }
+
+    @Override
+    public long getProcessedOranges() {
+        return serviced[PlantConfig.BOTTLER].sum();
+    }
+
+    @Override
+    public long getAbandonedOranges() {
+        return abandoned;
+    }
+
+    /**
+     * Gets the number of oranges the stage before has finished that this stage has not, including the ones this
+     * stage's workers are holding.
+     */
+    @Override
+    public int getQueueSize(int stage) {
+        if (stage == PlantConfig.FETCHER) {
+            return 0;
+        }
+        return (int) Math.max(0, serviced[stage - 1].sum() - serviced[stage].sum());
+    }
+
+    /**
+     * Gets the number of slots in the ring.
+     *
+     * @return Ring size.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the distribution of a stage's service times.
+     *
+     * @param stage Stage index.
+     * @return Service time histogram.
+     */
+    public LatencyHistogram getServiceTimes(int stage) {
+        return serviceTimes[stage];
+    }
+
+    /**
+     * Gets the distribution of how long oranges waited for a stage after the stage before finished them.
+     *
+     * @param stage Stage index.
+     * @return Queue wait histogram, empty for the fetcher.
+     */
+    public LatencyHistogram getQueueWaits(int stage) {
+        return queueWaits[stage];
+    }
+
+    /**
+     * Waits until {@code stage} has published {@code expected} in {@code slot}.
+     *
+     * @param stage    Stage to wait for.
+     * @param slot     Ring slot.
+     * @param expected Sequence the stage has to publish there.
+     * @param sequence Sequence the waiting worker holds, given up once it is past the {@link #end}.
+     * @return {@code true} once published, {@code false} if the worker should stop instead.
+     */
+    private boolean await(int stage, int slot, long expected, long sequence) throws InterruptedException {
+        AtomicLongArray done = published[stage];
+        for (int i = 0; i < SPINS; i++) {
+            if (done.get(slot) == expected) {
+                return true;
+            }
+            if (sequence >= end || abandoning) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        Object gate = gates[stage];
+        synchronized (gate) {
+            parked.incrementAndGet(stage);
+            try {
+                while (done.get(slot) != expected) {
+                    if (sequence >= end || abandoning) {
+                        return false;
+                    }
+                    gate.wait();
+                }
+            } finally {
+                parked.decrementAndGet(stage);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Publishes {@code sequence} as finished by {@code stage} and wakes whoever is parked waiting for that stage.
+     * The published write comes before the check for parked workers, and a worker registers as parked before its last
+     * check, so one of the two always sees the other.
+     */
+    private void publish(int stage, int slot, long sequence) {
+        published[stage].set(slot, sequence);
+        if (parked.get(stage) > 0) {
+            Object gate = gates[stage];
+            synchronized (gate) {
+                gate.notifyAll();
+            }
+        }
+    }
+
+    private void wakeAll() {
+        for (Object gate : gates) {
+            synchronized (gate) {
+                gate.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * One worker of the line. The same loop as {@link Worker#run()}, over sequences of the ring.
+     */
+    private final class Station implements Runnable {
+        private final String threadName;
+        private final int stage;
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        Station(String threadName, int stage) {
+            this.threadName = threadName;
+            this.stage = stage;
+        }
+
+        @Override
+        public void run() {
+            Thread current = Thread.currentThread();
+            String previousName = current.getName();
+            current.setName(threadName);
+            try {
+                CountDownLatch go = config.getStartSignal();
+                if (go != null) {
+                    go.await();
+                }
+                if (stage == PlantConfig.FETCHER) {
+                    fetch();
+                } else {
+                    process();
+                }
+            } catch (InterruptedException e) {
+                ConsoleLog.warn(threadName + " interrupted.");
+            } finally {
+                if (stage == PlantConfig.FETCHER && fetchers.decrementAndGet() == 0) {
+                    end = claimed[PlantConfig.FETCHER].get();
+                    wakeAll();
+                }
+                current.setName(previousName);
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Fetches into the next free slot until the line stops fetching. Like an {@link Orange}, which does the
+         * fetching work once when it is created and once more when the fetcher processes it.
+         */
+        private void fetch() throws InterruptedException {
+            Orange.State fetched = STATES[0];
+            while (fetching) {
+                long sequence = claimed[stage].getAndIncrement();
+                int slot = (int) sequence & mask;
+                // A fetcher never stops early on its own, every sequence it claims has to reach the bottler
+                if (!await(PlantConfig.BOTTLER, slot, sequence - size, Long.MIN_VALUE)) {
+                    break;
+                }
+                long start = System.nanoTime();
+                states[slot] = 0;
+                Orange.getCostModel().work(fetched, fetched.timeToComplete);
+                runProcess(slot);
+                finish(slot, sequence, start);
+            }
+        }
+
+        private void process() throws InterruptedException {
+            while (true) {
+                long sequence = claimed[stage].getAndIncrement();
+                int slot = (int) sequence & mask;
+                if (!await(stage - 1, slot, sequence, sequence)) {
+                    break;
+                }
+                long start = System.nanoTime();
+                queueWaits[stage].record(start - publishedAt[slot]);
+                runProcess(slot);
+                finish(slot, sequence, start);
+            }
+        }
+
+        private void runProcess(int slot) throws InterruptedException {
+            Orange.State state = STATES[states[slot]];
+            Orange.getCostModel().work(state, state.timeToComplete);
+            states[slot]++;
+        }
+
+        /**
+         * Records the orange's service time and publishes it to the next stage, or frees its slot once it is bottled.
+         */
+        private void finish(int slot, long sequence, long start) {
+            long now = System.nanoTime();
+            serviced[stage].increment();
+            serviceTimes[stage].record(now - start);
+            publishedAt[slot] = now;
+            publish(stage, slot, sequence);
+            if (stage == PlantConfig.BOTTLER) {
+                Runnable action = onTarget;
+                if (action != null && serviced[stage].sum() >= target && targetReached.compareAndSet(false, true)) {
+                    action.run();
+                }
+            }
+        }
+
+        void clockOut() {
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                ConsoleLog.warn(threadName + " was interrupted.");
+            }
+        }
+
+        boolean clockOut(long deadline) {
+            try {
+                return finished.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                ConsoleLog.warn(threadName + " was interrupted.");
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,386 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * <h1>RunSettings</h1>
+ * The settings of a {@link Plant#main} run, read from command line flags and an optional properties file instead of
+ * being compiled in.
+ * <p>
+ * Flags have the form {@code key=value}; {@code config=plant.properties} reads the same keys from a properties file
+ * first, and flags override it. Every key is optional and defaults to the built-in value:
+ * </p>
+ * <ul>
+ *     <li>{@code plants}: number of plants ({@code Plant.NUM_PLANTS}).</li>
+ *     <li>{@code runTime}: how long the plants run, in milliseconds ({@link Plant#PROCESSING_TIME}).</li>
+ *     <li>{@code orangesPerBottle}: oranges per bottle ({@link PlantConfig#getOrangesPerBottle()}).</li>
+ *     <li>{@code workers}: workers for every stage; {@code workers.fetcher}, {@code workers.peeler},
+ *     {@code workers.squeezer} and {@code workers.bottler} set one stage and win over {@code workers}.</li>
+ *     <li>{@code time.fetched}, {@code time.peeled}, {@code time.squeezed}, {@code time.bottled},
+ *     {@code time.processed}: time of an {@link Orange.State} in milliseconds, see {@link TimedCost}.</li>
+ *     <li>{@code cost}: {@code sleep}, {@code busy} or {@code none}, see {@link StandardCost}.</li>
+ *     <li>{@code queueCapacity}, {@code batch}, {@code engine} and {@code scheduling}: see {@link PlantConfig}.</li>
+ *     <li>{@code fetchRate}: oranges fetched per second over all plants, 0 for as fast as possible, see
+ *     {@link FetchPacer}.</li>
+ *     <li>{@code fetchControl}: {@code true} to let each plant's {@link FetchController} set its fetch rate from
+ *     what it can bottle; can't be combined with {@code fetchRate}.</li>
+ *     <li>{@code processes}: run the plants in this many JVMs of {@code plants} plants each, under a
+ *     {@link FleetCoordinator}; 0, the default, runs them in this JVM.</li>
+ * </ul>
+ *
+ * <h2>Sweeps:</h2>
+ * <p>
+ * A value may list several choices separated by commas, e.g. {@code plants=1,2,4 workers.peeler=1,2,3}. The run is
+ * then a sweep over every combination, see {@link Sweep}, which writes one CSV line per combination to the file
+ * named by {@code csv} ({@code sweep.csv} by default).
+ * </p>
+ */
+public final class RunSettings {
+    private static final String[] STAGE_KEYS = {"fetcher", "peeler", "squeezer", "bottler"};
+    /**
+     * Every key a setting may have, besides {@code config} and {@code csv}.
+     */
+    private static final List<String> KEYS;
+
+    static {
+        List<String> keys = new ArrayList<String>(Arrays.asList("plants", "runTime", "orangesPerBottle", "workers",
+                "cost", "queueCapacity", "batch", "engine", "scheduling", "fetchControl", "fetchRate", "processes"));
+        for (String stage : STAGE_KEYS) {
+            keys.add("workers." + stage);
+        }
+        for (Orange.State state : Orange.State.values()) {
+            keys.add("time." + state.name().toLowerCase(Locale.ROOT));
+        }
+        KEYS = Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * The choices given for each key, in the order the keys were first seen. Keys with one choice are fixed,
+     * keys with more are swept.
+     */
+    private final Map<String, List<String>> choices = new LinkedHashMap<String, List<String>>();
+    private Path csv = Paths.get("sweep.csv");
+
+    private RunSettings() {
+    }
+
+    /**
+     * Reads the settings from command line flags, and from the properties file named by a {@code config} flag.
+     *
+     * @param args Command line flags, {@code key=value}.
+     * @return Settings.
+     * @throws IOException              if the properties file can't be read.
+     * @throws IllegalArgumentException if a flag is malformed, a key is unknown or a value is invalid.
+     */
+    public static RunSettings parse(String[] args) throws IOException {
+        RunSettings settings = new RunSettings();
+        Map<String, String> flags = new LinkedHashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            flags.put(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+        }
+        String file = flags.remove("config");
+        if (file != null) {
+            Properties properties = new Properties();
+            try (Reader in = Files.newBufferedReader(Paths.get(file))) {
+                properties.load(in);
+            }
+            for (String key : properties.stringPropertyNames()) {
+                settings.set(key, properties.getProperty(key).trim());
+            }
+        }
+        for (Map.Entry<String, String> flag : flags.entrySet()) {
+            settings.set(flag.getKey(), flag.getValue());
+        }
+        // Build every combination once, so a bad value fails before anything runs
+        settings.points();
+        return settings;
+    }
+
+    private void set(String key, String value) {
+        if (key.equals("csv")) {
+            csv = Paths.get(value);
+            return;
+        }
+        if (!KEYS.contains(key)) {
+            throw new IllegalArgumentException("Unknown setting " + key + ", expected one of " + KEYS);
+        }
+        List<String> values = new ArrayList<String>();
+        for (String v : value.split(",")) {
+            if (!v.trim().isEmpty()) {
+                values.add(v.trim());
+            }
+        }
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("No value for " + key);
+        }
+        choices.remove(key);
+        choices.put(key, values);
+    }
+
+    /**
+     * Checks whether any setting has more than one choice.
+     *
+     * @return {@code true} if this is a sweep.
+     */
+    public boolean isSweep() {
+        return !getSweptKeys().isEmpty();
+    }
+
+    /**
+     * Gets the keys that have more than one choice, in the order they were given.
+     *
+     * @return Swept keys.
+     */
+    public List<String> getSweptKeys() {
+        List<String> swept = new ArrayList<String>();
+        for (Map.Entry<String, List<String>> e : choices.entrySet()) {
+            if (e.getValue().size() > 1) {
+                swept.add(e.getKey());
+            }
+        }
+        return swept;
+    }
+
+    /**
+     * Gets the file a sweep writes its results to.
+     *
+     * @return CSV file.
+     */
+    public Path getCsv() {
+        return csv;
+    }
+
+    /**
+     * Gets every combination of choices, the last swept key changing fastest. A run that isn't a sweep has one.
+     *
+     * @return One point per combination.
+     * @throws IllegalArgumentException if a value is invalid.
+     */
+    public List<Point> points() {
+        List<Map<String, String>> combinations = new ArrayList<Map<String, String>>();
+        combinations.add(new LinkedHashMap<String, String>());
+        for (Map.Entry<String, List<String>> e : choices.entrySet()) {
+            List<Map<String, String>> next = new ArrayList<Map<String, String>>();
+            for (Map<String, String> partial : combinations) {
+                for (String value : e.getValue()) {
+                    Map<String, String> c = new LinkedHashMap<String, String>(partial);
+                    c.put(e.getKey(), value);
+                    next.add(c);
+                }
+            }
+            combinations = next;
+        }
+        List<Point> points = new ArrayList<Point>(combinations.size());
+        for (Map<String, String> c : combinations) {
+            points.add(new Point(c));
+        }
+        return points;
+    }
+
+    /**
+     * <h1>Point</h1>
+     * One combination of settings: everything needed to set up one run of plants.
+     */
+    public static final class Point {
+        private final Map<String, String> values;
+        private final int plants;
+        private final long runTime;
+        private final CostModel costModel;
+        /**
+         * Config values shared by every plant; each plant gets its own {@link PlantConfig}.
+         */
+        private final int[] workers = new int[PlantConfig.NUM_STAGES];
+        private final int orangesPerBottle;
+        private final int queueCapacity;
+        private final int batch;
+        private final Engine engine;
+        private final Scheduling scheduling;
+        private final boolean fetchControl;
+        private final double fetchRate;
+        private final int processes;
+
+        private Point(Map<String, String> values) {
+            this.values = values;
+            PlantConfig defaults = new PlantConfig();
+            plants = positive("plants", Plant.NUM_PLANTS);
+            runTime = positive("runTime", (int) Plant.PROCESSING_TIME);
+            orangesPerBottle = positive("orangesPerBottle", defaults.getOrangesPerBottle());
+            queueCapacity = positive("queueCapacity", defaults.getQueueCapacity());
+            batch = positive("batch", defaults.getBatchSize());
+            for (int s = 0; s < workers.length; s++) {
+                workers[s] = positive("workers." + STAGE_KEYS[s], positive("workers", defaults.getWorkers(s)));
+            }
+            engine = Engine.valueOf(get("engine", defaults.getEngine().name()).toUpperCase(Locale.ROOT));
+            scheduling = Scheduling.valueOf(get("scheduling", defaults.getScheduling().name())
+                    .toUpperCase(Locale.ROOT));
+            String control = get("fetchControl", "false");
+            if (!control.equalsIgnoreCase("true") && !control.equalsIgnoreCase("false")) {
+                throw new IllegalArgumentException("fetchControl must be true or false, got " + control);
+            }
+            fetchControl = Boolean.parseBoolean(control);
+            processes = integer("processes", 0);
+            if (processes < 0) {
+                throw new IllegalArgumentException("processes can't be negative, got " + processes);
+            }
+            String rate = get("fetchRate", "0");
+            try {
+                fetchRate = Double.parseDouble(rate);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("fetchRate must be a number, got " + rate);
+            }
+            if (!(fetchRate >= 0) || Double.isInfinite(fetchRate)) {
+                throw new IllegalArgumentException("fetchRate must be 0 or more, got " + rate);
+            }
+            if (fetchControl && fetchRate > 0) {
+                throw new IllegalArgumentException("fetchRate and fetchControl can't be combined");
+            }
+
+            CostModel model = StandardCost.valueOf(get("cost", "sleep").toUpperCase(Locale.ROOT));
+            Orange.State[] states = Orange.State.values();
+            int[] millis = new int[states.length];
+            boolean timed = false;
+            for (Orange.State state : states) {
+                String key = "time." + state.name().toLowerCase(Locale.ROOT);
+                timed |= values.containsKey(key);
+                millis[state.ordinal()] = integer(key, state.timeToComplete);
+            }
+            costModel = timed ? new TimedCost(model, millis) : model;
+        }
+
+        private String get(String key, String fallback) {
+            String v = values.get(key);
+            return v == null ? fallback : v;
+        }
+
+        private int integer(String key, int fallback) {
+            String v = values.get(key);
+            if (v == null) {
+                return fallback;
+            }
+            try {
+                return Integer.parseInt(v);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(key + " must be a whole number, got " + v);
+            }
+        }
+
+        private int positive(String key, int fallback) {
+            int v = integer(key, fallback);
+            if (v < 1) {
+                throw new IllegalArgumentException(key + " must be at least 1, got " + v);
+            }
+            return v;
+        }
+
+        /**
+         * Makes a fresh config for one plant of this point.
+         *
+         * @return Plant config, without a run time; set one to have the plant stop itself.
+         */
+        public PlantConfig newConfig() {
+            PlantConfig config = new PlantConfig().setOrangesPerBottle(orangesPerBottle)
+                    .setQueueCapacity(queueCapacity).setBatchSize(batch).setEngine(engine).setScheduling(scheduling)
+                    .setControlFetchRate(fetchControl);
+            for (int s = 0; s < workers.length; s++) {
+                config.setWorkers(s, workers[s]);
+            }
+            return config;
+        }
+
+        /**
+         * Makes the pacer the plants of this point share, in one JVM.
+         *
+         * @return Fetch pacer at {@code fetchRate}, {@code null} if fetching is not paced.
+         */
+        public FetchPacer newPacer() {
+            return fetchRate > 0 ? new FetchPacer(fetchRate) : null;
+        }
+
+        /**
+         * Gets the value this point has for a setting, as given.
+         *
+         * @param key Setting name.
+         * @return Value, {@code null} if the setting was left at its default.
+         */
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        /**
+         * Gets the number of plants.
+         *
+         * @return Number of plants.
+         */
+        public int getPlants() {
+            return plants;
+        }
+
+        /**
+         * Gets how long the plants run.
+         *
+         * @return Run time in milliseconds.
+         */
+        public long getRunTime() {
+            return runTime;
+        }
+
+        /**
+         * Gets the number of oranges to fetch per second, over all plants and processes.
+         *
+         * @return Fetch rate, 0 for as fast as possible.
+         */
+        public double getFetchRate() {
+            return fetchRate;
+        }
+
+        /**
+         * Gets the number of JVMs to run the plants in.
+         *
+         * @return Number of processes of {@link #getPlants()} plants each, 0 to run the plants in this JVM.
+         */
+        public int getProcesses() {
+            return processes;
+        }
+
+        /**
+         * Gets the settings of this point as flags, e.g. to hand them to another JVM.
+         *
+         * @return One {@code key=value} per setting that was given.
+         */
+        public List<String> toArgs() {
+            List<String> args = new ArrayList<String>(values.size());
+            for (Map.Entry<String, String> e : values.entrySet()) {
+                args.add(e.getKey() + "=" + e.getValue());
+            }
+            return args;
+        }
+
+        /**
+         * Gets the cost model oranges should use, with the stage times of this point.
+         *
+         * @return Cost model, to pass to {@link Orange#setCostModel(CostModel)}.
+         */
+        public CostModel getCostModel() {
+            return costModel;
+        }
+
+        @Override
+        public String toString() {
+            return values.toString();
+        }
+    }
+}
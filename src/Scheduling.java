@@ -0,0 +1,23 @@
+/**
+ * <h1>Scheduling</h1>
+ * Chooses when a plant's fetchers bring in new oranges, see {@link PlantConfig#setScheduling(Scheduling)} and
+ * {@link StageScheduler}. Only {@link Engine#CONVEYORS} plants are scheduled.
+ */
+public enum Scheduling {
+    /**
+     * Fetchers fetch as fast as they can, and every orange takes its turn on each conveyor in arrival order. The
+     * original behaviour.
+     */
+    FIFO,
+    /**
+     * Oranges that are already on their way are finished before new ones are started: fetchers only start a new
+     * bottle's worth of oranges while few enough are in the line, and always fetch whole bottles' worth, also when
+     * the plant stops.
+     */
+    PROGRESS,
+    /**
+     * Like {@link #PROGRESS}, and the fetchers also stop starting new bottles once those could no longer be bottled
+     * before the plant's run time is up.
+     */
+    DEADLINE
+}
@@ -0,0 +1,540 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * <h1>Stage</h1>
+ * One step of the production line (fetching, peeling, squeezing or bottling) and the pool of {@link Worker}
+ * threads assigned to it.
+ * <p>
+ * Every worker in a stage takes oranges from the same input {@link Conveyor} and sends them to the same output
+ * {@link Conveyor}. Each worker is registered as a producer on the output, so the output is only closed once the
+ * last worker of the stage has finished.
+ * </p>
+ *
+ * <p>
+ * The stage also keeps the average time its workers spend on one orange, which {@link StageBalancer} uses together
+ * with the input backlog to decide where workers are needed most, and {@link LatencyHistogram}s of service time and
+ * of the time oranges wait on the input conveyor for {@link MetricsReporter}.
+ * </p>
+ */
+public class Stage {
+    /**
+     * Stage name, e.g. "peeler". Workers are named after it.
+     */
+    private final String name;
+    /**
+     * Conveyor the workers pull from, {@code null} for the fetching stage.
+     */
+    private final Conveyor input;
+    /**
+     * Where the workers send finished oranges: the next stage's conveyor, or the plant's bottle accumulator.
+     */
+    private final OrangeSink output;
+    /**
+     * Service time assumed before any orange has been measured, in nanoseconds.
+     */
+    private final long expectedServiceNanos;
+    /**
+     * Runs this stage's workers, see {@link ExecutionMode}.
+     */
+    private final Executor executor;
+    /**
+     * Largest number of oranges a worker takes from the input conveyor at once.
+     */
+    private final int maxBatch;
+    /**
+     * Workers currently assigned to this stage.
+     */
+    private final List<Worker> active = new CopyOnWriteArrayList<Worker>();
+    /**
+     * Every worker ever hired here, including ones the balancer has moved away, so shutdown can wait on all of them.
+     */
+    private final List<Worker> hired = new CopyOnWriteArrayList<Worker>();
+    /**
+     * Total time spent processing oranges in this stage, and how many oranges that covers. The count is the stage's
+     * cell in the plant's {@link ProductionCounters} once {@link #countIn} has been called.
+     */
+    private final LongAdder serviceNanos = new LongAdder();
+    private LongAdder serviced = new LongAdder();
+    /**
+     * Distribution of service times, and of how long oranges waited on the input conveyor.
+     */
+    private final LatencyHistogram serviceTimes = new LatencyHistogram();
+    private final LatencyHistogram queueWaits = new LatencyHistogram();
+    /**
+     * Called once when {@link #serviced} reaches {@link #target}, {@code null} if there is no target.
+     */
+    private volatile Runnable onTarget;
+    private long target;
+    private final AtomicBoolean targetReached = new AtomicBoolean();
+    /**
+     * Position of this stage in the production line, e.g. {@link PlantConfig#PEELER}.
+     */
+    private final int index;
+    /**
+     * Plants this stage's idle workers steal from, {@code null} if the plant is on its own. Set before any worker
+     * is hired, together with this plant's member number.
+     */
+    private StealGroup stealGroup;
+    private int member;
+    /**
+     * Where every processed orange is recorded, {@code null} for nowhere, and the plant number to record.
+     */
+    private ProductionLog log;
+    private int plant;
+    /**
+     * Workers wait for this before touching their first orange, {@code null} to start right away.
+     */
+    private CountDownLatch startSignal;
+    /**
+     * Paces the fetcher's workers, {@code null} for no limit. Unused by other stages.
+     */
+    private FetchPacer pacer;
+    /**
+     * Decides when the fetcher's workers may start an orange, {@code null} to fetch until told to stop.
+     */
+    private StageScheduler scheduler;
+
+    /**
+     * Constructs a {@code Stage} with no workers.
+     *
+     * @param name                 Stage name.
+     * @param index                Position in the production line, e.g. {@link PlantConfig#PEELER}.
+     * @param input                Conveyor to pull from, {@code null} for the fetcher.
+     * @param output               Conveyor or accumulator to send to.
+     * @param expectedServiceMillis Service time to assume until real measurements come in, in milliseconds.
+     * @param executor             Runs this stage's workers.
+     * @param maxBatch             Largest number of oranges a worker takes at once, 1 for no batching.
+     */
+    public Stage(String name, int index, Conveyor input, OrangeSink output, long expectedServiceMillis,
+                 Executor executor, int maxBatch) {
+        this.name = name;
+        this.index = index;
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+        this.input = input;
+        this.output = output;
+        this.expectedServiceNanos = TimeUnit.MILLISECONDS.toNanos(expectedServiceMillis);
+    }
+
+    /**
+     * Lets this stage's idle workers steal oranges from the same stage of the other plants in a {@link StealGroup}.
+     * Must be called before the first worker is hired.
+     *
+     * @param group  Group the plant belongs to.
+     * @param member The plant's member number in the group.
+     */
+    void joinStealGroup(StealGroup group, int member) {
+        this.stealGroup = group;
+        this.member = member;
+    }
+
+    /**
+     * Records every orange this stage processes in a {@link ProductionLog}. Must be called before the first worker is
+     * hired.
+     *
+     * @param log   Log to write to.
+     * @param plant Plant number to record.
+     */
+    void logTo(ProductionLog log, int plant) {
+        this.log = log;
+        this.plant = plant;
+    }
+
+    /**
+     * Counts the oranges this stage finishes in the plant's {@link ProductionCounters}. Must be called before the
+     * first worker is hired.
+     *
+     * @param counters The plant's counters.
+     */
+    void countIn(ProductionCounters counters) {
+        this.serviced = counters.processedBy(index);
+    }
+
+    /**
+     * Makes this stage's workers wait for a signal before they start working, so they can all be created first. Must
+     * be called before the first worker is hired.
+     *
+     * @param startSignal Released when the workers may start.
+     */
+    void holdUntil(CountDownLatch startSignal) {
+        this.startSignal = startSignal;
+    }
+
+    /**
+     * Makes this stage's workers fetch no faster than a pacer allows. Only meaningful for the fetcher. Must be called
+     * before the first worker is hired.
+     *
+     * @param pacer Fetch pacer, possibly shared with other plants.
+     */
+    void paceWith(FetchPacer pacer) {
+        this.pacer = pacer;
+    }
+
+    /**
+     * Waits until a fetcher may fetch its next orange, see {@link #paceWith(FetchPacer)}. Returns right away when the
+     * stage is not paced, and as soon as the fetcher is told to stop. A stopped fetcher still fetches the orange if a
+     * {@link StageScheduler} admitted it, since it belongs to a bottle that was already started.
+     *
+     * @param stopped Tells whether the calling fetcher has been told to stop.
+     * @return {@code true} to fetch the orange, {@code false} to stop fetching.
+     * @throws InterruptedException if the worker is interrupted while waiting.
+     */
+    boolean pace(BooleanSupplier stopped) throws InterruptedException {
+        if (pacer != null && !pacer.acquire(stopped)) {
+            return scheduler != null;
+        }
+        return true;
+    }
+
+    /**
+     * Lets a scheduler decide when this stage's workers may start an orange. Only meaningful for the fetcher. Must be
+     * called before the first worker is hired.
+     *
+     * @param scheduler The plant's scheduler.
+     */
+    void scheduleWith(StageScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Decides whether a fetcher starts another orange, see {@link #scheduleWith(StageScheduler)}. Without a scheduler
+     * it does until it has been told to stop.
+     *
+     * @param stopping {@code true} if the fetcher has been told to stop.
+     * @return {@code true} to start an orange, {@code false} to stop fetching.
+     * @throws InterruptedException if the worker is interrupted while waiting.
+     */
+    boolean admit(boolean stopping) throws InterruptedException {
+        return scheduler == null ? !stopping : scheduler.admit(stopping);
+    }
+
+    /**
+     * Waits for the signal set with {@link #holdUntil(CountDownLatch)}, if there is one. Called by each worker
+     * before its first orange.
+     *
+     * @throws InterruptedException if the worker is interrupted while waiting.
+     */
+    void awaitStart() throws InterruptedException {
+        if (startSignal != null) {
+            startSignal.await();
+        }
+    }
+
+    /**
+     * Creates and starts a new {@link Worker} for this stage.
+     *
+     * @return The new worker.
+     */
+    public Worker hireWorker() {
+        // Register before the thread starts so the output can't be closed under a worker that is still coming up
+        output.addProducer();
+        Worker w = new Worker(name + " " + (hired.size() + 1), this);
+        hired.add(w);
+        active.add(w);
+        return w;
+    }
+
+    /**
+     * Takes one worker off this stage. The worker finishes the orange it is holding and then stops.
+     * A stage always keeps at least one worker.
+     *
+     * @return The retired worker, or {@code null} if this stage is down to its last worker.
+     */
+    public Worker retireWorker() {
+        if (active.size() <= 1) {
+            return null;
+        }
+        Worker w = active.remove(active.size() - 1);
+        w.retire();
+        return w;
+    }
+
+    /**
+     * Tells every worker of this stage to stop, without waiting for them.
+     * <p>
+     * Only the fetcher reacts to being told to stop; the other stages finish once their input is closed and drained,
+     * so stopping the fetcher is enough to drain the whole line. Fetchers waiting for their turn on a
+     * {@link FetchPacer} are woken to see it.
+     * </p>
+     */
+    public void stopWorkers() {
+        for (Worker w : hired) {
+            w.stopWorking();
+        }
+        if (pacer != null) {
+            pacer.wake();
+        }
+    }
+
+    /**
+     * Waits for every worker ever hired by this stage to finish, but no later than the given deadline.
+     *
+     * @param deadline Deadline as a {@link System#nanoTime()} value.
+     * @return {@code true} if all workers finished before the deadline.
+     */
+    public boolean awaitWorkers(long deadline) {
+        for (Worker w : hired) {
+            if (!w.clockOut(deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for every worker ever hired by this stage to finish.
+     */
+    public void awaitWorkers() {
+        for (Worker w : hired) {
+            w.clockOut();
+        }
+    }
+
+    /**
+     * Gets the next oranges for a worker of this stage, waiting until there are some.
+     * <p>
+     * On its own this is {@link Plant#getOranges(Conveyor, Orange[], int)} with the current
+     * {@link #getBatchLimit()}. In a {@link StealGroup}, a worker that finds the input empty steals from the other
+     * plants instead of parking, and while there is nothing to steal it parks for {@link StealGroup#getIdleMillis()}
+     * at a time before looking again.
+     * </p>
+     *
+     * @param into Array to fill, {@link #getMaxTake()} long.
+     * @return Number of oranges taken, 0 once the input is closed and empty.
+     * @throws InterruptedException if the worker is interrupted while waiting.
+     */
+    int take(Orange[] into) throws InterruptedException {
+        if (stealGroup == null) {
+            return Plant.getOranges(input, into, getBatchLimit());
+        }
+        while (true) {
+            int n = input.takeBatch(into, getBatchLimit(), 0, TimeUnit.NANOSECONDS);
+            if (n > 0) {
+                return n;
+            }
+            if (input.isClosed() && input.isEmpty()) {
+                return 0;
+            }
+            n = stealGroup.steal(member, index, into, into.length);
+            if (n > 0) {
+                return n;
+            }
+            n = input.takeBatch(into, getBatchLimit(), stealGroup.getIdleNanos(), TimeUnit.NANOSECONDS);
+            if (n > 0) {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Records the time a worker spent on one orange.
+     *
+     * @param nanos Service time in nanoseconds.
+     */
+    void recordService(long nanos) {
+        serviceNanos.add(nanos);
+        serviced.increment();
+        serviceTimes.record(nanos);
+        Runnable action = onTarget;
+        if (action != null && serviced.sum() >= target && targetReached.compareAndSet(false, true)) {
+            action.run();
+        }
+    }
+
+    /**
+     * Writes an orange this stage has just processed to the {@link ProductionLog}, if there is one.
+     *
+     * @param orange   The orange.
+     * @param started  When the worker started on it, as a {@link System#nanoTime()} value.
+     * @param finished When the worker finished it.
+     */
+    void log(Orange orange, long started, long finished) {
+        if (log != null) {
+            // The fetcher's oranges were never on a conveyor
+            long enqueued = input == null ? started : orange.getEnqueuedAt();
+            log.record(orange.getId(), plant, index, enqueued, started, finished);
+        }
+    }
+
+    /**
+     * Records how long an orange waited on the input conveyor before a worker took it.
+     *
+     * @param nanos Wait time in nanoseconds.
+     */
+    void recordWait(long nanos) {
+        queueWaits.record(nanos);
+    }
+
+    /**
+     * Sets an action to run once this stage has processed {@code count} oranges.
+     *
+     * @param count  Number of oranges to wait for.
+     * @param action Action to run, on the worker thread that reaches the count.
+     */
+    public void setTarget(long count, Runnable action) {
+        this.target = count;
+        this.onTarget = action;
+    }
+
+    /**
+     * Gets the number of oranges this stage has processed.
+     *
+     * @return Number of processed oranges.
+     */
+    public long getServiced() {
+        return serviced.sum();
+    }
+
+    /**
+     * Gets the total time this stage's workers have spent processing oranges.
+     *
+     * @return Busy time in nanoseconds.
+     */
+    public long getBusyNanos() {
+        return serviceNanos.sum();
+    }
+
+    /**
+     * Gets the distribution of this stage's service times.
+     *
+     * @return Service time histogram.
+     */
+    public LatencyHistogram getServiceTimes() {
+        return serviceTimes;
+    }
+
+    /**
+     * Gets the distribution of how long oranges waited on this stage's input conveyor.
+     *
+     * @return Queue wait histogram, empty for the fetcher.
+     */
+    public LatencyHistogram getQueueWaits() {
+        return queueWaits;
+    }
+
+    /**
+     * Gets the average time a worker of this stage spends on one orange.
+     *
+     * @return Average service time in nanoseconds, or the expected time if nothing has been measured yet.
+     */
+    public long getAverageServiceNanos() {
+        long count = serviced.sum();
+        return count == 0 ? expectedServiceNanos : serviceNanos.sum() / count;
+    }
+
+    /**
+     * Estimates how long the current workers need to clear the oranges waiting on the input conveyor.
+     *
+     * @return Estimated backlog in nanoseconds, 0 for the fetcher.
+     */
+    public long getBacklogNanos() {
+        if (input == null) {
+            return 0;
+        }
+        return input.size() * getAverageServiceNanos() / Math.max(1, active.size());
+    }
+
+    /**
+     * Gets the number of oranges this stage's workers have finished, including workers the balancer has moved away.
+     * Same as {@link #getServiced()}, read without visiting the workers.
+     *
+     * @return Total number of oranges finished by this stage.
+     */
+    public int getOrangeCounter() {
+        return (int) serviced.sum();
+    }
+
+    /**
+     * Gets the largest batch a worker of this stage may take.
+     *
+     * @return Maximum batch size.
+     */
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * Gets the largest number of oranges a worker of this stage can get at once, from a batch or from a steal.
+     *
+     * @return Size of a worker's batch array.
+     */
+    public int getMaxTake() {
+        return stealGroup == null ? maxBatch : Math.max(maxBatch, stealGroup.getMaxChunk());
+    }
+
+    /**
+     * Gets how many oranges a worker should take at once right now: its fair share of the input backlog, between 1 and
+     * {@link #getMaxBatch()}. A short queue means small batches, so batching adds no latency when the line is quiet,
+     * and one worker never takes work its idle siblings could have started on.
+     *
+     * @return Batch size for the next take.
+     */
+    public int getBatchLimit() {
+        if (maxBatch <= 1 || input == null) {
+            return 1;
+        }
+        int share = input.size() / Math.max(1, active.size());
+        return Math.max(1, Math.min(maxBatch, share));
+    }
+
+    /**
+     * Gets the number of workers currently assigned to this stage.
+     *
+     * @return Number of active workers.
+     */
+    public int getWorkerCount() {
+        return active.size();
+    }
+
+    /**
+     * Gets the stage's position in the production line.
+     *
+     * @return Stage index, e.g. {@link PlantConfig#PEELER}.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the stage's name.
+     *
+     * @return Stage name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the executor that runs this stage's workers.
+     *
+     * @return Worker executor.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Gets the conveyor this stage pulls from.
+     *
+     * @return Input conveyor, {@code null} for the fetcher.
+     */
+    public Conveyor getInput() {
+        return input;
+    }
+
+    /**
+     * Gets where this stage sends finished oranges.
+     *
+     * @return Output conveyor, or the plant's {@link BottleAccumulator} for the bottler.
+     */
+    public OrangeSink getOutput() {
+        return output;
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * <h1>StageBalancer</h1>
+ * Moves {@link Worker} threads toward the bottleneck {@link Stage} of a {@link Plant} while it runs.
+ * <p>
+ * Every {@link PlantConfig#getBalanceInterval()} milliseconds the balancer estimates each stage's backlog, i.e. how
+ * long its current workers need to clear the oranges queued in front of them (queue depth times measured service
+ * time, divided by the number of workers). If the deepest backlog is worth more than one interval of work and at least
+ * twice the shallowest, one worker is retired from the shallow stage and a new one is hired for the deep stage. The
+ * total number of workers stays the same and no stage drops below one worker.
+ * </p>
+ *
+ * <p>
+ * The fetcher is never moved: it has no input to balance against and sets the pace for the whole plant.
+ * </p>
+ */
+public class StageBalancer implements Runnable {
+    /**
+     * Stages to balance, in production line order.
+     */
+    private final Stage[] stages;
+    /**
+     * Time between balancing passes in milliseconds.
+     */
+    private final long interval;
+    /**
+     * Balancer's thread.
+     */
+    private final Thread thread;
+    /**
+     * Cleared by {@link #stop()}.
+     */
+    private volatile boolean running;
+
+    /**
+     * Constructs a {@code StageBalancer}. Call {@link #start()} to begin balancing.
+     *
+     * @param name     Name of the plant being balanced.
+     * @param stages   Stages of that plant.
+     * @param interval Time between balancing passes in milliseconds.
+     */
+    public StageBalancer(String name, Stage[] stages, long interval) {
+        this.stages = stages;
+        this.interval = interval;
+        this.thread = new Thread(this, name + " balancer");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the balancer's thread.
+     */
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the balancer and waits for it to finish its current pass, so no worker is moved after this returns.
+     */
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            ConsoleLog.warn(thread.getName() + " stop malfunction");
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                break;
+            }
+            rebalance();
+        }
+    }
+
+    /**
+     * Performs one balancing pass, moving at most one worker.
+     */
+    void rebalance() {
+        Stage deepest = null;
+        Stage shallowest = null;
+        long deepestBacklog = -1;
+        long shallowestBacklog = Long.MAX_VALUE;
+        for (Stage s : stages) {
+            if (s.getInput() == null) {
+                continue;
+            }
+            long backlog = s.getBacklogNanos();
+            if (backlog > deepestBacklog) {
+                deepest = s;
+                deepestBacklog = backlog;
+            }
+            if (s.getWorkerCount() > 1 && backlog < shallowestBacklog) {
+                shallowest = s;
+                shallowestBacklog = backlog;
+            }
+        }
+        if (deepest == null || shallowest == null || deepest == shallowest) {
+            return;
+        }
+        // Leave things alone unless the imbalance is big enough to be worth a worker
+        if (deepestBacklog < interval * 1_000_000L || deepestBacklog < 2 * shallowestBacklog) {
+            return;
+        }
+        if (shallowest.retireWorker() != null) {
+            deepest.hireWorker();
+            ConsoleLog.info(thread.getName() + ": moved a worker from " + shallowest.getName() + " to "
+                    + deepest.getName());
+        }
+    }
+}
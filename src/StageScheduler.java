@@ -0,0 +1,173 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h1>StageScheduler</h1>
+ * Decides when a plant's fetchers may start another orange, so the oranges already in the line are finished first
+ * and every orange that is started can end up in a full bottle. See {@link Scheduling}.
+ * <p>
+ * Each conveyor only ever holds oranges in one state, so inside a stage there is nothing to choose between: the
+ * choice between finishing a half-done orange and starting a fresh one is made when the fetchers start it. The
+ * scheduler makes that choice in three ways:
+ * </p>
+ * <ul>
+ *     <li><b>Whole bottles:</b> oranges are started in groups of {@link PlantConfig#getOrangesPerBottle()}. A group
+ *     that has been started is always finished, also by fetchers that have been told to stop, so the plant doesn't
+ *     end with oranges that can never fill a bottle.</li>
+ *     <li><b>Work in progress:</b> a new group is only started while fewer than {@code limit} oranges are in the line,
+ *     fetched but not yet bottled, dropped or abandoned. Fresh oranges then never pile up in front of the later
+ *     stages, and the line drains quickly when the plant stops.</li>
+ *     <li><b>Deadline</b> ({@link Scheduling#DEADLINE} only): no new group is started once it could not be bottled
+ *     before the plant's run time is up. How long a group takes is estimated from the stages' average service times
+ *     and backlogs, see {@link Stage#getBacklogNanos()}.</li>
+ * </ul>
+ * <p>
+ * Oranges lost on the way, to a conveyor's {@link Backpressure} or to a drain deadline, still leave their group
+ * short.
+ * </p>
+ */
+public class StageScheduler {
+    /**
+     * How long a fetcher waits before looking again whether it may start a new group.
+     */
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String name;
+    private final Scheduling scheduling;
+    /**
+     * The plant's stages, filled in as the plant creates them.
+     */
+    private final Stage[] stages;
+    private final ProductionCounters counters;
+    private final int groupSize;
+    private final long limit;
+    /**
+     * Oranges the fetchers have been allowed to start.
+     */
+    private final AtomicLong admitted = new AtomicLong();
+    /**
+     * Set once no new group may be started.
+     */
+    private volatile boolean closed;
+    /**
+     * {@link System#nanoTime()} by which started oranges must be bottled, only used for {@link Scheduling#DEADLINE}.
+     */
+    private volatile long deadline;
+    private volatile boolean hasDeadline;
+
+    /**
+     * Constructs a scheduler.
+     *
+     * @param name       Plant name, for messages.
+     * @param scheduling Scheduling policy, not {@link Scheduling#FIFO}.
+     * @param stages     The plant's stages, indexed like {@link PlantConfig#PEELER}; may still be empty.
+     * @param counters   The plant's counters.
+     * @param groupSize  Oranges per bottle.
+     * @param limit      Most oranges in the line before the fetchers wait to start a new group.
+     * @throws IllegalArgumentException if {@code scheduling} is {@link Scheduling#FIFO}, or a size is less than one.
+     */
+    public StageScheduler(String name, Scheduling scheduling, Stage[] stages, ProductionCounters counters,
+                          int groupSize, long limit) {
+        if (scheduling == Scheduling.FIFO) {
+            throw new IllegalArgumentException("FIFO plants don't need a scheduler");
+        }
+        if (groupSize < 1 || limit < 1) {
+            throw new IllegalArgumentException("Group size and limit must be at least 1");
+        }
+        this.name = name;
+        this.scheduling = scheduling;
+        this.stages = stages;
+        this.counters = counters;
+        this.groupSize = groupSize;
+        this.limit = limit;
+    }
+
+    /**
+     * Sets when the plant's run time is up. Only used for {@link Scheduling#DEADLINE}.
+     *
+     * @param deadline {@link System#nanoTime()} at the end of the run.
+     */
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+        hasDeadline = true;
+    }
+
+    /**
+     * Stops new groups from being started. Groups already started are still finished.
+     */
+    void close() {
+        closed = true;
+    }
+
+    /**
+     * Waits until the calling fetcher may start another orange, or finds that it should stop.
+     *
+     * @param stopping {@code true} if the fetcher has been told to stop; it then only finishes the current group.
+     * @return {@code true} to start an orange, {@code false} to stop fetching.
+     * @throws InterruptedException if the fetcher is interrupted while waiting.
+     */
+    boolean admit(boolean stopping) throws InterruptedException {
+        while (true) {
+            long started = admitted.get();
+            if (started % groupSize == 0) {
+                if (stopping || closed) {
+                    return false;
+                }
+                if (scheduling == Scheduling.DEADLINE && hasDeadline
+                        && System.nanoTime() + groupNanos() - deadline > 0) {
+                    closed = true;
+                    ConsoleLog.info(name + " stops starting oranges: the next bottle would miss the end of the run");
+                    return false;
+                }
+                if (started - counters.getBottled() - counters.getWasted() >= limit) {
+                    LockSupport.parkNanos(this, POLL_NANOS);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    continue;
+                }
+            }
+            if (admitted.compareAndSet(started, started + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Estimates how long a group started now takes until it is bottled: fetching it, then at every later stage the
+     * backlog in front of it and its own service time.
+     */
+    private long groupNanos() {
+        long nanos = 0;
+        Stage fetcher = stages[PlantConfig.FETCHER];
+        if (fetcher != null) {
+            int fetchers = Math.max(1, fetcher.getWorkerCount());
+            nanos += (groupSize + fetchers - 1) / fetchers * fetcher.getAverageServiceNanos();
+        }
+        for (int s = PlantConfig.FETCHER + 1; s < stages.length; s++) {
+            if (stages[s] != null) {
+                nanos += stages[s].getBacklogNanos() + stages[s].getAverageServiceNanos();
+            }
+        }
+        return nanos;
+    }
+
+    /**
+     * Gets the number of oranges the fetchers have been allowed to start.
+     *
+     * @return Number of oranges.
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * Gets the scheduling policy.
+     *
+     * @return Policy.
+     */
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * <h1>StandardCost</h1>
+ * The built-in {@link CostModel}s.
+ */
+public enum StandardCost implements CostModel {
+    /**
+     * Sleeps for the stage's time, the original behaviour. Models stages that wait rather than compute.
+     */
+    SLEEP {
+        @Override
+        public void work(Orange.State state, int timeToComplete) throws InterruptedException {
+            Thread.sleep(timeToComplete);
+        }
+    },
+    /**
+     * Keeps a core busy for about the stage's time. Models CPU-bound stages, so the workers compete for cores.
+     */
+    BUSY {
+        @Override
+        public void work(Orange.State state, int timeToComplete) {
+            BusyWork.spin((long) timeToComplete * BusyWork.ITERATIONS_PER_MILLI);
+        }
+    },
+    /**
+     * Does nothing. What is left to measure is the pipeline itself: queueing, hand-offs and state transitions.
+     */
+    NONE {
+        @Override
+        public void work(Orange.State state, int timeToComplete) {
+        }
+    };
+
+    /**
+     * Busy loop used by {@link #BUSY}, calibrated once when first used.
+     */
+    private static final class BusyWork {
+        /**
+         * Written at the end of every loop so the JIT can't drop the work.
+         */
+        static volatile long sink;
+        static final long ITERATIONS_PER_MILLI = calibrate();
+
+        static void spin(long iterations) {
+            long x = sink;
+            for (long i = 0; i < iterations; i++) {
+                x = x * 6364136223846793005L + 1442695040888963407L;
+            }
+            sink = x;
+        }
+
+        /**
+         * Times a few rounds of the loop, after warming it up, and keeps the fastest so a busy machine during
+         * calibration doesn't make the work too short.
+         */
+        private static long calibrate() {
+            long probe = 1_000_000;
+            for (int i = 0; i < 20; i++) {
+                spin(probe);
+            }
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 5; i++) {
+                long begin = System.nanoTime();
+                spin(probe);
+                best = Math.min(best, System.nanoTime() - begin);
+            }
+            return Math.max(1, probe * 1_000_000L / Math.max(1, best));
+        }
+    }
+}
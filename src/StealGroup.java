@@ -0,0 +1,152 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>StealGroup</h1>
+ * A set of {@link Plant}s whose idle workers help each other out.
+ * <p>
+ * Plants are normally fully isolated: if one plant's peelers fall behind while another plant's peelers have nothing
+ * to do, nothing evens that out. Plants that share a {@code StealGroup} (see {@link PlantConfig#setStealGroup}) let a
+ * worker whose own input conveyor is empty take oranges from the same stage's conveyor in another plant of the
+ * group. The orange is then finished in the thief's plant, and both plants count it in their
+ * {@link ProductionCounters}, see {@link ProductionCounters#getStolenIn()}.
+ * </p>
+ *
+ * <h2>Stealing:</h2>
+ * <ul>
+ *     <li>Thieves take from the tail of the victim's conveyor, while the victim's own workers take from the head, so
+ *     the two rarely contend for the same end of the belt.</li>
+ *     <li>They take a chunk at once, up to {@link #getMaxChunk()} and never more than half of what is waiting, so one
+ *     steal pays for several oranges and the victim is never emptied by it.</li>
+ *     <li>Victims are tried starting with the plant that joined right after the thief's, so each plant keeps going to
+ *     the same few neighbours first instead of every thief hammering plant 0.</li>
+ *     <li>A conveyor with fewer than two oranges waiting is left alone; its own workers are about to take them.</li>
+ * </ul>
+ *
+ * <p>
+ * An idle worker in a group does not park indefinitely on its own conveyor: it wakes every {@link #getIdleMillis()}
+ * to look for something to steal.
+ * </p>
+ */
+public class StealGroup {
+    /**
+     * Each member's conveyors, indexed like {@link PlantConfig#PEELER}; the fetcher has none.
+     */
+    private final List<Conveyor[]> members = new CopyOnWriteArrayList<Conveyor[]>();
+    /**
+     * Each member's counters, in the same order as {@link #members}.
+     */
+    private final List<ProductionCounters> counters = new CopyOnWriteArrayList<ProductionCounters>();
+    /**
+     * Largest number of oranges taken in one steal.
+     */
+    private final int maxChunk;
+    /**
+     * How long an idle worker waits on its own conveyor before looking for something to steal again.
+     */
+    private final long idleMillis;
+    private final LongAdder stolen = new LongAdder();
+
+    /**
+     * Constructs an empty group that steals up to 8 oranges at a time and looks for work every 5 ms when idle.
+     */
+    public StealGroup() {
+        this(8, 5);
+    }
+
+    /**
+     * Constructs an empty group.
+     *
+     * @param maxChunk   Largest number of oranges taken in one steal, at least one.
+     * @param idleMillis How often an idle worker looks for something to steal, at least 1 ms.
+     * @throws IllegalArgumentException if either value is less than one.
+     */
+    public StealGroup(int maxChunk, long idleMillis) {
+        if (maxChunk < 1) {
+            throw new IllegalArgumentException("Steal chunk must be at least 1");
+        }
+        if (idleMillis < 1) {
+            throw new IllegalArgumentException("Idle interval must be at least 1 ms");
+        }
+        this.maxChunk = maxChunk;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * Adds a plant's conveyors to the group.
+     *
+     * @param conveyors The plant's conveyors, indexed like {@link PlantConfig#PEELER}.
+     * @param counts    The plant's counters, which count the oranges it steals and has stolen from it.
+     * @return The plant's member number, used when it steals.
+     */
+    synchronized int join(Conveyor[] conveyors, ProductionCounters counts) {
+        counters.add(counts);
+        members.add(conveyors);
+        return members.size() - 1;
+    }
+
+    /**
+     * Steals oranges for a worker of {@code stage} in plant {@code member} from the same stage of the other plants.
+     *
+     * @param member Thief's member number.
+     * @param stage  Thief's stage index.
+     * @param into   Array to fill.
+     * @param max    Maximum number of oranges to take, further limited by {@link #getMaxChunk()}.
+     * @return Number of oranges stolen, 0 if no other plant had any to spare.
+     */
+    int steal(int member, int stage, Orange[] into, int max) {
+        int n = members.size();
+        for (int k = 1; k < n; k++) {
+            int v = (member + k) % n;
+            Conveyor victim = members.get(v)[stage];
+            int waiting = victim.size();
+            if (waiting < 2) {
+                continue;
+            }
+            int got = victim.steal(into, Math.min(Math.min(max, maxChunk), waiting / 2));
+            if (got > 0) {
+                stolen.add(got);
+                counters.get(member).stoleIn(got);
+                counters.get(v).stoleOut(got);
+                return got;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the largest number of oranges taken in one steal.
+     *
+     * @return Steal chunk size.
+     */
+    public int getMaxChunk() {
+        return maxChunk;
+    }
+
+    /**
+     * Gets how often an idle worker looks for something to steal.
+     *
+     * @return Interval in milliseconds.
+     */
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * Gets the number of oranges stolen between the plants of this group so far.
+     *
+     * @return Number of stolen oranges.
+     */
+    public long getStolen() {
+        return stolen.sum();
+    }
+
+    /**
+     * Converts {@link #getIdleMillis()} for a timed wait.
+     */
+    long getIdleNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(idleMillis);
+    }
+}
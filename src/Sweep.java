@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <h1>Sweep</h1>
+ * Runs every combination of a {@link RunSettings} sweep in turn, in one JVM, and writes a CSV line per combination.
+ * <p>
+ * Each combination starts its plants as a {@link Fleet}, lets them run for their run time and drain, and records:
+ * </p>
+ * <ul>
+ *     <li>oranges bottled per second, over the time from starting the fleet to the last plant stopping;</li>
+ *     <li>bottles, wasted, dropped and abandoned oranges, added up over the plants;</li>
+ *     <li>queue wait p50 and p99 and service time p99 in milliseconds, over every stage of every plant, from the
+ *     stages' {@link LatencyHistogram}s (empty for engines other than {@link Engine#CONVEYORS});</li>
+ *     <li>time until the fleet's first bottle.</li>
+ * </ul>
+ * <p>
+ * A combination with {@code processes} set runs its plants in that many JVMs under a {@link FleetCoordinator}
+ * instead, which only reports the counts; its latency and first bottle columns are left empty.
+ * </p>
+ *
+ * <p>
+ * The CSV starts with one column per swept setting. Results are written as each combination finishes, so an
+ * interrupted sweep keeps what it had. The plants' console messages below {@link ConsoleLog.Level#WARN} are
+ * turned off while the sweep runs; a summary line per combination and the best combination by throughput are
+ * printed instead.
+ * </p>
+ */
+public class Sweep {
+    private final RunSettings settings;
+    /**
+     * Oranges per second of the combination measured last.
+     */
+    private double rate;
+
+    /**
+     * Constructs a sweep.
+     *
+     * @param settings Settings with one or more swept keys.
+     */
+    public Sweep(RunSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Runs every combination and writes the CSV.
+     *
+     * @throws IOException          if the CSV can't be written.
+     * @throws InterruptedException if the sweep is interrupted between combinations.
+     */
+    public void run() throws IOException, InterruptedException {
+        List<String> swept = settings.getSweptKeys();
+        List<RunSettings.Point> points = settings.points();
+        ConsoleLog.Level level = ConsoleLog.getLevel();
+        if (ConsoleLog.isEnabled(ConsoleLog.Level.INFO)) {
+            ConsoleLog.setLevel(ConsoleLog.Level.WARN);
+        }
+        CostModel cost = Orange.getCostModel();
+        double best = -1;
+        RunSettings.Point bestPoint = null;
+        try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(settings.getCsv()))) {
+            StringBuilder header = new StringBuilder();
+            for (String key : swept) {
+                header.append(key).append(',');
+            }
+            header.append("oranges_per_sec,bottles,wasted,dropped,abandoned,wait_p50_ms,wait_p99_ms,service_p99_ms,")
+                    .append("first_bottle_ms");
+            csv.println(header);
+            csv.flush();
+            int n = 0;
+            for (RunSettings.Point point : points) {
+                n++;
+                String result = measure(point);
+                StringBuilder line = new StringBuilder();
+                for (String key : swept) {
+                    line.append(point.get(key)).append(',');
+                }
+                line.append(result);
+                csv.println(line);
+                csv.flush();
+                if (rate > best) {
+                    best = rate;
+                    bestPoint = point;
+                }
+                System.out.println("[" + n + "/" + points.size() + "] " + point + " -> " + result);
+            }
+        } finally {
+            ConsoleLog.setLevel(level);
+            Orange.setCostModel(cost);
+        }
+        System.out.printf(Locale.ROOT, "Best: %s at %.1f oranges/sec; results in %s%n", bestPoint, best,
+                settings.getCsv());
+    }
+
+    /**
+     * Runs one combination and returns its CSV result columns.
+     */
+    private String measure(RunSettings.Point point) throws IOException, InterruptedException {
+        if (point.getProcesses() > 0) {
+            return measureProcesses(point);
+        }
+        Orange.setCostModel(point.getCostModel());
+        FetchPacer pacer = point.newPacer();
+        Fleet fleet = new Fleet(point.getPlants(), i -> point.newConfig().setRunTime(point.getRunTime())
+                .setFetchPacer(pacer));
+        fleet.start();
+        fleet.waitToStop();
+        double seconds = (System.nanoTime() - fleet.getBeginNanos()) / 1e9;
+
+        long processed = 0;
+        long bottles = 0;
+        long wasted = 0;
+        long dropped = 0;
+        long abandoned = 0;
+        long[] waits = null;
+        long[] services = null;
+        for (Plant p : fleet.getPlants()) {
+            processed += p.getProcessedOranges();
+            bottles += p.getBottles();
+            wasted += p.getWaste();
+            dropped += p.getDroppedOranges();
+            abandoned += p.getAbandonedOranges();
+            for (Stage stage : p.getStages()) {
+                if (stage != null) {
+                    waits = add(waits, stage.getQueueWaits().snapshot());
+                    services = add(services, stage.getServiceTimes().snapshot());
+                }
+            }
+        }
+        rate = processed / seconds;
+        return String.format(Locale.ROOT, "%.1f,%d,%d,%d,%d,%s,%s,%s,%s", rate, bottles, wasted,
+                dropped, abandoned, millis(waits, 0.5), millis(waits, 0.99), millis(services, 0.99),
+                fleet.getFirstBottleNanos() < 0 ? "" : String.format(Locale.ROOT, "%.1f",
+                        fleet.getFirstBottleNanos() / 1e6));
+    }
+
+    /**
+     * Runs one combination in several JVMs and returns its CSV result columns. The processes don't report latencies
+     * or their first bottle, so those columns stay empty.
+     */
+    private String measureProcesses(RunSettings.Point point) throws IOException, InterruptedException {
+        FleetCoordinator coordinator = new FleetCoordinator(point);
+        coordinator.run();
+        rate = coordinator.getProcessedOranges() / coordinator.getSeconds();
+        return String.format(Locale.ROOT, "%.1f,%d,%d,%d,%d,,,,", rate, coordinator.getBottles(),
+                coordinator.getWaste(), coordinator.getDroppedOranges(), coordinator.getAbandonedOranges());
+    }
+
+    private static long[] add(long[] total, long[] snapshot) {
+        if (total == null) {
+            return snapshot;
+        }
+        for (int i = 0; i < total.length; i++) {
+            total[i] += snapshot[i];
+        }
+        return total;
+    }
+
+    private static String millis(long[] snapshot, double quantile) {
+        if (snapshot == null || LatencyHistogram.count(snapshot) == 0) {
+            return "";
+        }
+        return String.format(Locale.ROOT, "%.2f", LatencyHistogram.valueAt(snapshot, quantile) / 1e6);
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.Arrays;
+
+/**
+ * <h1>TimedCost</h1>
+ * A {@link CostModel} that does another model's work, but with its own time for every {@link Orange.State} instead of
+ * the state's built-in {@code timeToComplete}.
+ * <p>
+ * Lets an experiment try different stage times, e.g. a slower peeler, without recompiling {@link Orange.State}.
+ * Everything that works an orange goes through the active cost model, so the times apply to every {@link Engine}.
+ * </p>
+ */
+public class TimedCost implements CostModel {
+    private final CostModel model;
+    /**
+     * Time of each state in milliseconds, indexed by {@link Orange.State#ordinal()}.
+     */
+    private final int[] millis;
+
+    /**
+     * Constructs a cost model with its own stage times.
+     *
+     * @param model  Model that does the work, e.g. {@link StandardCost#SLEEP}.
+     * @param millis Time of each state in milliseconds, in {@link Orange.State} order.
+     * @throws IllegalArgumentException if there is not exactly one time per state, or a time is negative.
+     */
+    public TimedCost(CostModel model, int[] millis) {
+        if (millis.length != Orange.State.values().length) {
+            throw new IllegalArgumentException("Need one time per orange state, got " + millis.length);
+        }
+        for (int m : millis) {
+            if (m < 0) {
+                throw new IllegalArgumentException("Stage times can't be negative");
+            }
+        }
+        this.model = model;
+        this.millis = millis.clone();
+    }
+
+    @Override
+    public void work(Orange.State state, int timeToComplete) throws InterruptedException {
+        model.work(state, millis[state.ordinal()]);
+    }
+
+    /**
+     * Gets the time this model uses for a state.
+     *
+     * @param state Orange state.
+     * @return Time in milliseconds.
+     */
+    public int getTime(Orange.State state) {
+        return millis[state.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        return model + Arrays.toString(millis);
+    }
+}
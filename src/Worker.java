@@ -1,4 +1,9 @@
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 /**
  * <h1>Worker</h1>
@@ -10,80 +15,147 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  *
  * <h2>Responsibilities:</h2>
  * <ul>
- *     <li>Processes {@link Orange} objects from {@code readyForWork} queue.</li>
+ *     <li>Processes {@link Orange} objects from {@code readyForWork} conveyor.</li>
  *     <li>Executes processing stage via {@link Orange#runProcess()}.</li>
- *     <li>Passes processed {@link Orange} to {@code processedOranges} queue.</li>
+ *     <li>Passes processed {@link Orange} to {@code processedOranges} conveyor.</li>
  *     <li>Tracks processed orange count ({@link #orangeCounter}).</li>
  *     <li>Manages lifecycle: {@link #startWorking()}, {@link #stopWorking()}, {@link #clockOut()}.</li>
  * </ul>
  *
  * <p>
- * Managed by {@link Plant}, using concurrent queues for orange flow.
+ * Managed by {@link Plant}, using {@link Conveyor} belts for orange flow.
  * </p>
  */
 public class Worker implements Runnable {
-    // Initializes two queues that are Concurrent Linked Queues
-    // which are a FIFO node based queue that ""should"" be thread safe
-    private final ConcurrentLinkedQueue<Orange> readyForWork;
-    private final ConcurrentLinkedQueue<Orange> processedOranges;
-    //[JB] Each worker gets their own individual thread
-    private final Thread workerThread;
-    //[JB] Boolean indicating if the Worker is working
-    private boolean isWorking;
-    //[JB] Keeps track of the oranges that have been fully processed
-    private volatile int orangeCounter;
-
+    // Stage this worker belongs to, used to record how long each orange takes
+    private final Stage stage;
+    // Conveyors this worker pulls from and sends to. Workers park on an empty conveyor
+    // until an orange arrives, and stop once it is closed and drained.
+    private final Conveyor readyForWork;
+    private final OrangeSink processedOranges;
+    //[JB] Each worker gets their own individual thread, started through the plant's Executor.
+    //The thread is only known once run() begins, so joining goes through a latch instead.
+    private final String threadName;
+    private final Executor executor;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile Thread workerThread;
+    //[JB] Boolean indicating if the Worker is working. Only the fetcher checks it, every
+    //other stage stops when its input conveyor is closed.
+    private volatile boolean isWorking;
+    // Lets a FetchPacer see that the fetcher was told to stop while it waits for its turn.
+    private final BooleanSupplier stopped = () -> !isWorking;
+    //[JB] Keeps track of the oranges that have been fully processed by this worker. Only the worker's
+    //own thread writes it, so it is bumped with an ordered plain write rather than a contended increment.
+    //The stage's total lives in the plant's ProductionCounters.
+    private final AtomicInteger orangeCounter = new AtomicInteger();
+    // Set when the StageBalancer moves this worker off its stage. Guarded by this worker's lock
+    // together with idle, so a parked worker can be woken without interrupting one mid-orange.
+    private boolean retired;
+    private boolean idle;
 
     /**
-     * Constructs a {@code Worker}. Sets up queues and starts working.
+     * Constructs a {@code Worker}. Sets up queues from its {@link Stage} and starts working.
+     * The stage must already have registered this worker as a producer on its output.
      *
-     * @param name        Worker name (stage).
-     * @param sendingTo   Queue to send processed {@link Orange} to.
-     * @param pullingFrom Queue to get {@link Orange} to process from.
+     * @param name  Worker name (stage and number).
+     * @param stage {@link Stage} this worker belongs to.
      */
-    Worker(String name, ConcurrentLinkedQueue<Orange> sendingTo, ConcurrentLinkedQueue<Orange> pullingFrom) {
-        this.readyForWork = pullingFrom;
-        this.processedOranges = sendingTo;
-        this.workerThread = new Thread(this, "Worker Name: " + name);
-        System.out.println("Worker: " + name + " created.");
+    Worker(String name, Stage stage) {
+        this.stage = stage;
+        this.readyForWork = stage.getInput();
+        this.processedOranges = stage.getOutput();
+        this.threadName = "Worker Name: " + name;
+        this.executor = stage.getExecutor();
+        ConsoleLog.info("Worker: " + name + " created.");
         startWorking();
     }
 
     /**
-     * Starts the {@code Worker}'s thread and begins its processing loop.
+     * Starts the {@code Worker}'s thread and begins its processing loop. The thread comes from the stage's
+     * {@link Executor}, see {@link ExecutionMode}.
      */
     public void startWorking() {
-        System.out.println("Starting working...");
+        ConsoleLog.info("Starting working...");
         isWorking = true;
-        orangeCounter = 0;
-        workerThread.start();
+        orangeCounter.set(0);
+        executor.execute(this);
 
     }
 
     /**
-     * Signals the {@code Worker} to stop processing and begin its shutdown sequence.
+     * Signals the {@code Worker} to stop processing and begin its shutdown sequence. Returns right away; use
+     * {@link #clockOut()} to wait for the worker to finish. Only the fetcher needs this signal, every other stage
+     * stops once its input conveyor is closed and drained.
      */
     public void stopWorking() {
         isWorking = false;
-        clockOut();
+    }
+
+    /**
+     * Takes this worker off its stage. It finishes the orange it is holding, if any, and then stops.
+     * A worker parked on an empty conveyor is woken right away.
+     */
+    public synchronized void retire() {
+        retired = true;
+        if (idle) {
+            workerThread.interrupt();
+        }
+    }
+
+    /**
+     * Checks whether this worker has been retired, and if not marks it as idle before it waits for an orange.
+     *
+     * @return {@code true} if the worker should stop.
+     */
+    private synchronized boolean clockIn() {
+        if (retired) {
+            return true;
+        }
+        idle = true;
+        return false;
+    }
+
+    /**
+     * Marks this worker busy again after waiting for an orange. A wake-up meant for an idle worker can race with an
+     * orange arriving, so any pending interrupt is cleared here instead of cutting the next orange short.
+     */
+    private synchronized void backToWork() {
+        idle = false;
+        Thread.interrupted();
     }
 
     /**
      * Waits for the {@code Worker}'s thread to terminate gracefully.
      * <p>
-     * This method calls {@link Thread#join()} on the worker's thread ({@link #workerThread}). This will block the
-     * calling thread until the worker thread has completed its execution.  It is typically called after {@link #stopWorking()}
-     * to ensure that the worker has finished processing and released any resources before the program exits or proceeds further.
+     * This method waits until the worker's {@link #run()} method has returned. This will block the calling thread until
+     * the worker thread has completed its execution. It is typically called after {@link #stopWorking()} to ensure that
+     * the worker has finished processing and released any resources before the program exits or proceeds further.
      * </p>
      *
      * @throws InterruptedException if the thread waiting for the worker to join is interrupted. In this case, an error
-     *                              message is printed to the standard error stream indicating that the worker thread was interrupted during shutdown.
+     *                              message is logged through {@link ConsoleLog} indicating that the worker thread
+     *                              was interrupted during shutdown.
      */
     public void clockOut() {
         try {
-            workerThread.join();
+            finished.await();
+        } catch (InterruptedException e) {
+            ConsoleLog.warn(threadName + " was interrupted.");
+        }
+    }
+
+    /**
+     * Waits for the {@code Worker}'s thread to terminate, but no later than the given deadline.
+     *
+     * @param deadline Deadline as a {@link System#nanoTime()} value.
+     * @return {@code true} if the worker finished before the deadline.
+     */
+    public boolean clockOut(long deadline) {
+        try {
+            return finished.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
         } catch (InterruptedException e) {
-            System.err.println(workerThread.getName() + " was interrupted.");
+            ConsoleLog.warn(threadName + " was interrupted.");
+            return false;
         }
     }
 
@@ -94,60 +166,105 @@ public class Worker implements Runnable {
      * @return The count of oranges that this worker has successfully processed.
      */
     public int getOrangeCounter() {
-        return orangeCounter;
+        return orangeCounter.get();
     }
 
     /**
      * The main processing loop for the {@code Worker} thread.
      * <p>
-     * This method is executed when the worker's thread starts. It continuously attempts to retrieve {@link Orange} objects
-     * from the {@code readyForWork} queue and process them. The loop continues as long as the worker is in the working state
-     * ({@link #isWorking} is true) or there are still oranges remaining in the input queue.
+     * The fetcher ({@code readyForWork} is {@code null}) creates new {@link Orange} objects for as long as the worker
+     * is in the working state ({@link #isWorking} is true); with a {@link StageScheduler}, until the scheduler says
+     * to stop, which may be a few oranges later so the last bottle is full. Every other stage takes oranges from its
+     * {@code readyForWork} conveyor until that conveyor is closed and drained.
      * </p>
      *
      * <p>
      * <b>Processing Logic:</b>
      * </p>
      * <ol>
-     *     <li><b>Retrieve Orange:</b> Attempts to dequeue an {@link Orange} from the {@code readyForWork} queue using
-     *     {@link Plant#getOranges(ConcurrentLinkedQueue)}.  If successful (an orange is retrieved), it proceeds to the next step.
-     *     If the queue is empty or {@code readyForWork} is {@code null}, it may proceed to create a new {@link Orange} (see note below).</li>
-     *     <li><b>Process Orange:</b> Calls {@link Orange#runProcess()} on the retrieved orange. This advances the orange to its
-     *     next {@link Orange.State} in the production process and simulates the processing time.</li>
-     *     <li><b>Send Processed Orange:</b> Enqueues the processed {@link Orange} to the {@code processedOranges} queue using
-     *     {@link Plant#sendOranges(Orange, ConcurrentLinkedQueue)}, making it available for the next stage worker.</li>
-     *     <li><b>Increment Counter:</b> Increments the {@link #orangeCounter} to track the number of oranges processed by this worker.</li>
-     *     <li><b>Spin Wait/Hibernate:</b> Introduces a small delay {@code Thread.sleep(10)} to implement a spin wait or short hibernation.
-     *     This reduces CPU usage when the worker is waiting for oranges to become available in the input queue.</li>
+     *     <li><b>Retrieve Orange:</b> Takes a batch of oranges from the {@code readyForWork} conveyor using
+     *     {@link Plant#getOranges(Conveyor, Orange[], int)}. The worker parks there while the conveyor is empty and
+     *     wakes as soon as an orange arrives, taking whatever else is already waiting up to
+     *     {@link Stage#getBatchLimit()}. With the default batch size of one this is a single orange. If the plant is
+     *     in a {@link StealGroup} and the conveyor is empty, the worker steals from another plant instead, see
+     *     {@link Stage#take(Orange[])}. The fetcher instead creates a new {@link Orange}, first waiting for its
+     *     {@link StageScheduler} if the plant has one, and then for its turn if the plant has a
+     *     {@link PlantConfig#setFetchPacer fetch pacer}. A fetcher told to stop doesn't wait for its turn, see
+     *     {@link Stage#pace}.</li>
+     *     <li><b>Process Orange:</b> Calls {@link Orange#runProcess()} on the retrieved orange. This advances the
+     *     orange to its next {@link Orange.State} in the production process and simulates the processing time. The
+     *     orange is then counted in {@link #orangeCounter} and in the stage's {@link ProductionCounters}.</li>
+     *     <li><b>Send Processed Orange:</b> Puts the processed batch on the {@code processedOranges} conveyor in one
+     *     operation using {@link Plant#sendOranges(Orange[], int, OrangeSink)}, making it available for the next stage
+     *     worker; the bottler sends to the plant's {@link BottleAccumulator} instead. If that conveyor is full, its
+     *     {@link Backpressure} policy decides whether the worker waits for room or an orange is dropped.</li>
+     *     <li><b>Pass On Shutdown:</b> When the loop ends the worker signs off as a producer of its
+     *     {@code processedOranges} conveyor. Once every worker of the stage has done so the conveyor closes, and the
+     *     next stage finishes whatever is left on it and then stops as well.</li>
      * </ol>
      *
      *
      * <p>
-     * <b>Error Handling:</b> If the thread sleep is interrupted, an error message is printed to the standard error stream, indicating
-     * that the worker thread was interrupted.
+     * <b>Error Handling:</b> If the worker is interrupted while waiting for an orange, a warning is logged through
+     * {@link ConsoleLog} and the worker stops. A worker woken because it was {@link #retire() retired} stops quietly.
      * </p>
      */
     @Override
     public void run() {
-        while (isWorking || (readyForWork != null && !readyForWork.isEmpty())) {
-            if (readyForWork != null && !readyForWork.isEmpty()) {
-                Orange o = Plant.getOranges(readyForWork);
-                if (o != null) {
+        workerThread = Thread.currentThread();
+        // Name the thread after the worker while it is ours, pooled executors get their name back afterwards
+        String previousName = workerThread.getName();
+        workerThread.setName(threadName);
+        try {
+            stage.awaitStart();
+            if (readyForWork == null) {
+                while (true) {
+                    if (!stage.admit(!isWorking)) {
+                        break;
+                    }
+                    if (!stage.pace(stopped)) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    Orange o = new Orange();
                     o.runProcess();
+                    long end = System.nanoTime();
+                    orangeCounter.lazySet(orangeCounter.get() + 1);
+                    stage.recordService(end - start);
+                    stage.log(o, start, end);
                     Plant.sendOranges(o, processedOranges);
                 }
-            } else if (readyForWork == null) {
-                Orange o = new Orange();
-                orangeCounter++;
-                o.runProcess();
-                Plant.sendOranges(o, processedOranges);
+            } else {
+                Orange[] batch = new Orange[stage.getMaxTake()];
+                while (!clockIn()) {
+                    int n = stage.take(batch);
+                    backToWork();
+                    if (n == 0) {
+                        break;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        long start = System.nanoTime();
+                        stage.recordWait(start - batch[i].getEnqueuedAt());
+                        batch[i].runProcess();
+                        long end = System.nanoTime();
+                        stage.recordService(end - start);
+                        stage.log(batch[i], start, end);
+                    }
+                    orangeCounter.lazySet(orangeCounter.get() + n);
+                    Plant.sendOranges(batch, n, processedOranges);
+                    Arrays.fill(batch, 0, n, null);
+                }
             }
-
-            try {
-                Thread.sleep(10); // Spin wait / Hibernate
-            } catch (InterruptedException e) {
-                System.err.println(workerThread.getName() + " interrupted.");
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                if (!retired) {
+                    ConsoleLog.warn(threadName + " interrupted.");
+                }
             }
+        } finally {
+            processedOranges.producerDone();
+            workerThread.setName(previousName);
+            finished.countDown();
         }
     }
-}
\ No newline at end of file
+}